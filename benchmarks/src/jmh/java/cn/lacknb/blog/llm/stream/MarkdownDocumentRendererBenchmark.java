@@ -0,0 +1,52 @@
+package cn.lacknb.blog.llm.stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.html.HTMLEditorKit;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning an answer into a text pane document: {@link MarkdownRenderer#toHtml} read back by the HTML
+ * editor kit, as {@code JEditorPane.setText} does, against {@link MarkdownDocumentRenderer#render}.
+ * Nothing is remembered, so every direct render misses {@link RenderedMarkdownCache}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MarkdownDocumentRendererBenchmark {
+    @Param({"1", "16", "256"})
+    public int sections;
+
+    private final MarkdownRenderer htmlRenderer = new MarkdownRenderer();
+    private final MarkdownDocumentRenderer documentRenderer = new MarkdownDocumentRenderer();
+    private final HTMLEditorKit kit = new HTMLEditorKit();
+    private String response;
+
+    @Setup
+    public void setUp() {
+        response = StreamInputs.response(sections);
+    }
+
+    @Benchmark
+    public Document htmlThenParse() throws IOException, BadLocationException {
+        Document document = kit.createDefaultDocument();
+        kit.read(new StringReader(htmlRenderer.toHtml(response)), document, 0);
+        return document;
+    }
+
+    @Benchmark
+    public Document direct() {
+        return documentRenderer.render(response);
+    }
+}
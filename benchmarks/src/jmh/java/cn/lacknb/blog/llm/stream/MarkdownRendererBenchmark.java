@@ -0,0 +1,36 @@
+package cn.lacknb.blog.llm.stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MarkdownRenderer#toHtml} on answers of growing size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MarkdownRendererBenchmark {
+    @Param({"1", "16", "256"})
+    public int sections;
+
+    private final MarkdownRenderer renderer = new MarkdownRenderer();
+    private String response;
+
+    @Setup
+    public void setUp() {
+        response = StreamInputs.response(sections);
+    }
+
+    @Benchmark
+    public String toHtml() {
+        return renderer.toHtml(response);
+    }
+}
@@ -0,0 +1,56 @@
+package cn.lacknb.blog.llm.stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SSE line decoding as done by {@link OpenAIChatService} for every streamed delta, from the raw
+ * {@code data:} line to the text appended to the {@link ResponseBuffer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SseDecodeBenchmark {
+    @Param({"16", "256"})
+    public int sections;
+
+    @Param({"4", "64"})
+    public int tokenChars;
+
+    private List<String> lines;
+
+    @Setup
+    public void setUp() {
+        List<String> tokens = StreamInputs.tokens(StreamInputs.response(sections), tokenChars);
+        lines = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            lines.add(StreamInputs.sseLine(token));
+        }
+    }
+
+    @Benchmark
+    public ResponseBuffer decode() {
+        ResponseBuffer answer = new ResponseBuffer();
+        for (String line : lines) {
+            String data = SseChunkDecoder.data(line);
+            if (data == null || SseChunkDecoder.DONE.equals(data)) {
+                continue;
+            }
+            SseChunkDecoder.Chunk chunk = SseChunkDecoder.decode(data);
+            if (chunk != null && chunk.content != null) {
+                answer.append(chunk.content);
+            }
+        }
+        return answer;
+    }
+}
@@ -0,0 +1,89 @@
+package cn.lacknb.blog.llm.stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The delimiter scanning that splits a streamed answer into text, code and think segments for
+ * {@link StreamMarkdownPanel}, fed token by token.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StreamDelimiterScannerBenchmark {
+    @Param({"1", "16", "256"})
+    public int sections;
+
+    @Param({"4", "64"})
+    public int tokenChars;
+
+    private List<String> tokens;
+
+    @Setup
+    public void setUp() {
+        tokens = StreamInputs.tokens(StreamInputs.response(sections), tokenChars);
+    }
+
+    @Benchmark
+    public void scan(Blackhole blackhole) {
+        StreamDelimiterScanner scanner = new StreamDelimiterScanner(new ConsumingSink(blackhole));
+        for (String token : tokens) {
+            scanner.feed(token);
+        }
+        scanner.finish();
+    }
+
+    private static final class ConsumingSink implements StreamDelimiterScanner.Sink {
+        private final Blackhole blackhole;
+
+        ConsumingSink(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void text(CharSequence text) {
+            blackhole.consume(text);
+        }
+
+        @Override
+        public void codeOpened() {
+        }
+
+        @Override
+        public void codeLanguage(String language) {
+            blackhole.consume(language);
+        }
+
+        @Override
+        public void code(CharSequence text) {
+            blackhole.consume(text);
+        }
+
+        @Override
+        public void codeClosed() {
+        }
+
+        @Override
+        public void thinkOpened() {
+        }
+
+        @Override
+        public void think(CharSequence text) {
+            blackhole.consume(text);
+        }
+
+        @Override
+        public void thinkClosed() {
+        }
+    }
+}
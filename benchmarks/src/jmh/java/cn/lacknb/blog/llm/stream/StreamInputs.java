@@ -0,0 +1,61 @@
+package cn.lacknb.blog.llm.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Synthetic model answers for the benchmarks: prose, lists, fenced code and a think block, repeated
+ * per section, and the same answer cut into tokens and SSE lines the way it is streamed.
+ */
+final class StreamInputs {
+    private StreamInputs() {
+    }
+
+    static String response(int sections) {
+        StringBuilder markdown = new StringBuilder("<think>\nThe user wants a loop; keep it short.\n</think>\n");
+        for (int i = 0; i < sections; i++) {
+            markdown.append("## Step ").append(i + 1).append("\n\n")
+                    .append("The **parser** reads each chunk and keeps `state` between calls, so a ")
+                    .append("response streamed in small pieces is parsed *once*. See [the docs](https://example.com).\n")
+                    .append("A second line of the same paragraph.\n\n")
+                    .append("- first item with `code`\n")
+                    .append("- second item\n")
+                    .append("  - nested item\n\n")
+                    .append("> A quoted note that spans\n> two lines.\n\n")
+                    .append("```java\n")
+                    .append("for (int i = 0; i < n; i++) {\n")
+                    .append("    total += values[i];\n")
+                    .append("}\n")
+                    .append("```\n\n");
+        }
+        return markdown.toString();
+    }
+
+    static List<String> tokens(String text, int tokenChars) {
+        List<String> tokens = new ArrayList<>(text.length() / tokenChars + 1);
+        for (int i = 0; i < text.length(); i += tokenChars) {
+            tokens.add(text.substring(i, Math.min(i + tokenChars, text.length())));
+        }
+        return tokens;
+    }
+
+    /**
+     * An OpenAI-style {@code chat.completion.chunk} event carrying {@code token} as its delta.
+     */
+    static String sseLine(String token) {
+        StringBuilder escaped = new StringBuilder(token.length() + 8);
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c == '\n') {
+                escaped.append("\\n");
+            } else {
+                escaped.append(c);
+            }
+        }
+        return "data: {\"id\":\"chatcmpl-1\",\"object\":\"chat.completion.chunk\",\"created\":1700000000,"
+                + "\"model\":\"gpt-4o-mini\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + escaped
+                + "\"},\"finish_reason\":null}]}";
+    }
+}
@@ -0,0 +1,52 @@
+package cn.lacknb.blog.llm.stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StreamMarkdownParser} on answers of growing size: the one-shot {@code parse} and the
+ * incremental parser fed the same answer token by token.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StreamMarkdownParserBenchmark {
+    @Param({"1", "16", "256"})
+    public int sections;
+
+    @Param({"4", "64"})
+    public int tokenChars;
+
+    private String response;
+    private List<String> tokens;
+
+    @Setup
+    public void setUp() {
+        response = StreamInputs.response(sections);
+        tokens = StreamInputs.tokens(response, tokenChars);
+    }
+
+    @Benchmark
+    public List<MarkdownBlock> parse() {
+        return StreamMarkdownParser.parse(response);
+    }
+
+    @Benchmark
+    public List<MarkdownBlock> feedTokens() {
+        StreamMarkdownParser parser = new StreamMarkdownParser();
+        for (String token : tokens) {
+            parser.feed(token);
+        }
+        parser.finish();
+        return parser.getBlocks();
+    }
+}
@@ -0,0 +1,66 @@
+package cn.lacknb.blog.llm.stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decryption of the strings that the build encrypts in {@code @EncryptStrings} classes:
+ * {@link AesUtil#decrypt} and the generated {@code StringDecryptor.d}, which every encrypted
+ * literal calls when it is used. The data is encrypted in setup with the key generated for this
+ * build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StringDecryptBenchmark {
+    private static final int IV_BYTES = 12;
+
+    @Param({"16", "256", "4096"})
+    public int length;
+
+    private byte[] key;
+    private byte[] iv;
+    private byte[] data;
+
+    @Setup
+    public void setUp() throws Exception {
+        Field keyField = StringDecryptor.class.getDeclaredField("KEY");
+        keyField.setAccessible(true);
+        key = (byte[]) keyField.get(null);
+        SecureRandom random = new SecureRandom();
+        iv = new byte[IV_BYTES];
+        random.nextBytes(iv);
+        StringBuilder plain = new StringBuilder(length);
+        while (plain.length() < length) {
+            plain.append("https://api.example.com/v1 ");
+        }
+        plain.setLength(length);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, iv));
+        data = cipher.doFinal(plain.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public byte[] aesDecrypt() {
+        return AesUtil.decrypt(data, key, iv);
+    }
+
+    @Benchmark
+    public String stringDecryptor() {
+        return StringDecryptor.d(data, iv);
+    }
+}
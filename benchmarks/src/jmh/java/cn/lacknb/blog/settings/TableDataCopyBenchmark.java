@@ -0,0 +1,43 @@
+package cn.lacknb.blog.settings;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The deep copy {@link ThreeTableSettingsConfigurable} makes of every left table item's data on
+ * reset and apply, {@link AppSettingsState.TableData#copy()}, for tables of growing size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TableDataCopyBenchmark {
+    @Param({"10", "100", "1000"})
+    public int rows;
+
+    private AppSettingsState.TableData data;
+
+    @Setup
+    public void setUp() {
+        data = new AppSettingsState.TableData();
+        for (int i = 0; i < rows; i++) {
+            data.customRules.add(new AppSettingsState.CustomRule("rule" + i, "value" + i));
+            data.ruleItems.add(new AppSettingsState.RuleItem("item" + i, "value" + i));
+            data.bottomItems.add(new AppSettingsState.PropertyItem("property" + i, "return \"value" + i + "\";"));
+        }
+        data.selectedCustomRuleIndex = 0;
+        data.bottomSelectedIndex = 0;
+    }
+
+    @Benchmark
+    public AppSettingsState.TableData copy() {
+        return data.copy();
+    }
+}
@@ -70,5 +70,15 @@
     public <init>();
     *;
 }
+# 主题切换监听器 - 在plugin.xml的applicationListeners中注册
+-keep public class cn.lacknb.blog.llm.stream.RenderedMarkdownCache$ThemeListener {
+    public <init>();
+    *;
+}
+# 配色方案监听器 - 在plugin.xml的applicationListeners中注册，方案切换或修改时清空代码高亮缓存
+-keep public class cn.lacknb.blog.llm.stream.CodeHighlightCache$SchemeListener {
+    public <init>();
+    *;
+}
 # 其他所有内容都将被混淆，包括类成员名称
 # 这有助于减小最终插件包的大小并提供基本保护
@@ -0,0 +1,49 @@
+package cn.lacknb.blog.llm.stream;
+
+import java.util.Locale;
+
+/**
+ * Decides when an answer from the fast model is weak enough to re-ask the main model.
+ */
+final class CascadePolicy {
+    private static final int REFUSAL_WINDOW = 160;
+    private static final String[] REFUSAL_MARKERS = {
+            "i'm sorry",
+            "i am sorry",
+            "i can't",
+            "i cannot",
+            "i'm unable",
+            "i am unable",
+            "抱歉",
+            "无法回答",
+            "我不能"
+    };
+
+    private CascadePolicy() {
+    }
+
+    static boolean shouldEscalate(CharSequence answer, boolean truncated) {
+        if (truncated || answer == null || isBlank(answer)) {
+            return true;
+        }
+        String head = answer.subSequence(0, Math.min(REFUSAL_WINDOW, answer.length()))
+                .toString()
+                .trim()
+                .toLowerCase(Locale.ROOT);
+        for (String marker : REFUSAL_MARKERS) {
+            if (head.startsWith(marker)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isBlank(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -2,9 +2,13 @@ package cn.lacknb.blog.llm.stream;
 
 public class ChatMessage {
     private final String role;
-    private String content;
+    private CharSequence content;
 
-    public ChatMessage(String role, String content) {
+    /**
+     * {@code content} is kept as given, so an assistant message can share the
+     * {@link ResponseBuffer} of its response instead of holding a copy.
+     */
+    public ChatMessage(String role, CharSequence content) {
         this.role = role;
         this.content = content;
     }
@@ -14,10 +18,14 @@ public class ChatMessage {
     }
 
     public String getContent() {
+        return content.toString();
+    }
+
+    CharSequence getContentText() {
         return content;
     }
 
-    public void setContent(String content) {
+    public void setContent(CharSequence content) {
         this.content = content;
     }
 }
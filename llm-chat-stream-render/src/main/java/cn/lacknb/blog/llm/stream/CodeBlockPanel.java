@@ -0,0 +1,274 @@
+package cn.lacknb.blog.llm.stream;
+
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.fileTypes.FileTypeManager;
+import com.intellij.openapi.fileTypes.PlainTextFileType;
+import com.intellij.openapi.project.Project;
+import com.intellij.ui.EditorTextField;
+import com.intellij.ui.JBColor;
+import com.intellij.util.ui.JBUI;
+import com.intellij.util.ui.UIUtil;
+
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTextArea;
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.Cursor;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Toolkit;
+import java.awt.datatransfer.StringSelection;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.Objects;
+
+/**
+ * A fenced code block. It owns its text; {@link CodeEditorPool} attaches an editor while it is visible.
+ */
+class CodeBlockPanel extends JPanel implements Disposable {
+    private final Project project;
+    private final CodeEditorPool pool;
+    private final JLabel languageLabel;
+    private final JTextArea lightView;
+    private final StringBuilder content = new StringBuilder();
+    private final StringBuilder pendingEditorText = new StringBuilder();
+    private String language;
+    private EditorTextField editorTextField;
+    private boolean completed;
+
+    CodeBlockPanel(Project project, CodeEditorPool pool, String language) {
+        super(new BorderLayout());
+        this.project = project;
+        this.pool = pool;
+        this.language = language == null ? "" : language;
+        setBackground(UIUtil.getPanelBackground());
+        setBorder(JBUI.Borders.empty());
+        setAlignmentX(Component.LEFT_ALIGNMENT);
+        setMaximumSize(new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE));
+
+        languageLabel = new JLabel(languageLabelText(this.language));
+        languageLabel.setFont(UIUtil.getLabelFont().deriveFont(UIUtil.getFontSize(UIUtil.FontSize.SMALL)));
+        languageLabel.setForeground(UIUtil.getContextHelpForeground());
+
+        JPanel header = new JPanel(new BorderLayout());
+        header.setBackground(UIUtil.getPanelBackground());
+
+        JPanel left = new JPanel(new FlowLayout(FlowLayout.LEFT, 6, 4));
+        left.setBackground(UIUtil.getPanelBackground());
+        left.add(languageLabel);
+
+        JPanel right = new JPanel(new FlowLayout(FlowLayout.RIGHT, 6, 4));
+        right.setBackground(UIUtil.getPanelBackground());
+        right.add(createIconAction(AllIcons.Actions.Copy, "Copy code", this::copyToClipboard));
+        right.add(createIconAction(AllIcons.Actions.Replace, "Replace in editor", this::replaceInEditor));
+        right.add(createIconAction(AllIcons.Actions.MenuPaste, "Insert at caret", this::insertInEditor));
+
+        header.add(left, BorderLayout.WEST);
+        header.add(right, BorderLayout.EAST);
+
+        lightView = createLightView();
+        add(header, BorderLayout.NORTH);
+        add(lightView, BorderLayout.CENTER);
+    }
+
+    String getText() {
+        return content.toString();
+    }
+
+    int getTextLength() {
+        return content.length();
+    }
+
+    boolean isCompleted() {
+        return completed;
+    }
+
+    boolean hasEditor() {
+        return editorTextField != null;
+    }
+
+    FileType getFileType() {
+        if (language.isEmpty()) {
+            return PlainTextFileType.INSTANCE;
+        }
+        FileType detected = FileTypeManager.getInstance().getFileTypeByExtension(language);
+        return detected != null ? detected : PlainTextFileType.INSTANCE;
+    }
+
+    void updateLanguage(String newLanguage) {
+        String next = newLanguage == null ? "" : newLanguage;
+        if (!Objects.equals(language, next)) {
+            language = next;
+            languageLabel.setText(languageLabelText(language));
+        }
+    }
+
+    void append(CharSequence text) {
+        content.append(text);
+        if (editorTextField != null) {
+            pendingEditorText.append(text);
+        } else {
+            lightView.append(text.toString());
+        }
+    }
+
+    /**
+     * Returns true if text is still pending.
+     */
+    boolean flushToEditor(int maxChars) {
+        if (editorTextField == null || pendingEditorText.length() == 0) {
+            pendingEditorText.setLength(0);
+            return false;
+        }
+        int len = Math.min(maxChars, pendingEditorText.length());
+        String text = pendingEditorText.substring(0, len);
+        pendingEditorText.delete(0, len);
+        StreamingDocumentWriter.append(editorTextField.getDocument(), text);
+        return pendingEditorText.length() > 0;
+    }
+
+    void complete() {
+        completed = true;
+        if (editorTextField != null) {
+            flushToEditor(Integer.MAX_VALUE);
+            requestHighlighting();
+        }
+    }
+
+    void attachEditor(EditorTextField editor) {
+        editorTextField = editor;
+        pendingEditorText.setLength(0);
+        editor.setFileType(PlainTextFileType.INSTANCE);
+        StreamingDocumentWriter.replace(editor.getDocument(), content.toString());
+        remove(lightView);
+        lightView.setText("");
+        add(editor, BorderLayout.CENTER);
+        revalidate();
+        repaint();
+        if (completed) {
+            requestHighlighting();
+        }
+    }
+
+    private void requestHighlighting() {
+        EditorTextField field = editorTextField;
+        Editor editor = field.getEditor();
+        FileType fileType = getFileType();
+        if (editor == null || fileType == PlainTextFileType.INSTANCE) {
+            return;
+        }
+        CodeHighlightCache.highlight(project, fileType, language, getText(), highlights -> {
+            if (editorTextField == field && !editor.isDisposed()) {
+                highlights.applyTo(editor);
+            }
+        });
+    }
+
+    @Override
+    public void dispose() {
+        pool.unregister(this);
+    }
+
+    EditorTextField detachEditor() {
+        EditorTextField editor = editorTextField;
+        if (editor == null) {
+            return null;
+        }
+        editorTextField = null;
+        pendingEditorText.setLength(0);
+        remove(editor);
+        lightView.setText(content.toString());
+        add(lightView, BorderLayout.CENTER);
+        revalidate();
+        repaint();
+        return editor;
+    }
+
+    private JTextArea createLightView() {
+        JTextArea textArea = new JTextArea();
+        textArea.setEditable(false);
+        textArea.setLineWrap(true);
+        textArea.setWrapStyleWord(true);
+        textArea.setOpaque(false);
+        textArea.setBorder(JBUI.Borders.compound(
+                JBUI.Borders.empty(4, 8),
+                JBUI.Borders.compound(JBUI.Borders.customLine(JBColor.border(), 1), JBUI.Borders.empty(4, 6))
+        ));
+        String fontName = EditorColorsManager.getInstance()
+                .getGlobalScheme()
+                .getEditorFontName();
+        int fontSize = EditorColorsManager.getInstance()
+                .getGlobalScheme()
+                .getEditorFontSize();
+        textArea.setFont(new java.awt.Font(fontName, java.awt.Font.PLAIN, fontSize));
+        textArea.setCursor(Cursor.getPredefinedCursor(Cursor.TEXT_CURSOR));
+        textArea.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                pool.materialize(CodeBlockPanel.this);
+            }
+        });
+        return textArea;
+    }
+
+    private String languageLabelText(String language) {
+        return language == null || language.isBlank() ? "plaintext" : language;
+    }
+
+    private JLabel createIconAction(javax.swing.Icon icon, String tooltip, Runnable action) {
+        JLabel label = new JLabel(icon);
+        label.setToolTipText(tooltip);
+        label.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        label.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                action.run();
+            }
+        });
+        return label;
+    }
+
+    private void copyToClipboard() {
+        StringSelection selection = new StringSelection(getText());
+        Toolkit.getDefaultToolkit().getSystemClipboard().setContents(selection, selection);
+    }
+
+    private void replaceInEditor() {
+        Editor editor = FileEditorManager.getInstance(project).getSelectedTextEditor();
+        if (editor == null) {
+            return;
+        }
+        String text = getText();
+        WriteCommandAction.runWriteCommandAction(project, () -> {
+            Document doc = editor.getDocument();
+            int start = editor.getSelectionModel().getSelectionStart();
+            int end = editor.getSelectionModel().getSelectionEnd();
+            if (start != end) {
+                doc.replaceString(start, end, text);
+            } else {
+                doc.setText(text);
+            }
+        });
+    }
+
+    private void insertInEditor() {
+        Editor editor = FileEditorManager.getInstance(project).getSelectedTextEditor();
+        if (editor == null) {
+            return;
+        }
+        String text = getText();
+        WriteCommandAction.runWriteCommandAction(project, () -> {
+            Document doc = editor.getDocument();
+            int offset = editor.getCaretModel().getOffset();
+            doc.insertString(offset, text);
+        });
+    }
+}
@@ -0,0 +1,178 @@
+package cn.lacknb.blog.llm.stream;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.fileTypes.PlainTextFileType;
+import com.intellij.openapi.project.Project;
+import com.intellij.ui.EditorTextField;
+import com.intellij.ui.JBColor;
+import com.intellij.util.ui.JBUI;
+import com.intellij.util.ui.UIUtil;
+
+import javax.swing.BorderFactory;
+import javax.swing.JViewport;
+import javax.swing.ScrollPaneConstants;
+import javax.swing.SwingUtilities;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Lends editors to the visible code blocks of one tool window, at most {@link #MAX_LIVE_EDITORS}
+ * at a time; the other blocks show a lightweight view.
+ */
+final class CodeEditorPool implements Disposable {
+    private static final int MAX_LIVE_EDITORS = 6;
+    private static final int MAX_IDLE_EDITORS = 3;
+
+    private final Project project;
+    private final SlowFrameLog slowFrames;
+    private final List<CodeBlockPanel> blocks = new ArrayList<>();
+    private final ArrayDeque<CodeBlockPanel> live = new ArrayDeque<>();
+    private final ArrayDeque<EditorTextField> idle = new ArrayDeque<>();
+    private boolean updateScheduled;
+    private int created;
+    private int reused;
+
+    CodeEditorPool(Project project, SlowFrameLog slowFrames) {
+        this.project = project;
+        this.slowFrames = slowFrames;
+    }
+
+    void register(CodeBlockPanel block) {
+        blocks.add(block);
+    }
+
+    void unregister(CodeBlockPanel block) {
+        blocks.remove(block);
+        if (live.remove(block)) {
+            release(block);
+        }
+    }
+
+    /**
+     * Attaches an editor to {@code block}, evicting the oldest live block if the pool is full.
+     */
+    void materialize(CodeBlockPanel block) {
+        if (block.hasEditor()) {
+            live.remove(block);
+            live.addLast(block);
+            return;
+        }
+        long start = System.nanoTime();
+        if (live.size() >= MAX_LIVE_EDITORS) {
+            release(live.pollFirst());
+        }
+        EditorTextField editor = idle.pollFirst();
+        if (editor == null) {
+            editor = createEditor();
+            created++;
+        } else {
+            reused++;
+        }
+        block.attachEditor(editor);
+        live.addLast(block);
+        slowFrames.record("attachEditor", "code", block.getTextLength(), System.nanoTime() - start);
+    }
+
+    /**
+     * Attaching editors resizes blocks, which fires further viewport changes, so passes are coalesced.
+     */
+    void scheduleVisibilityUpdate(JViewport viewport) {
+        if (updateScheduled) {
+            return;
+        }
+        updateScheduled = true;
+        SwingUtilities.invokeLater(() -> {
+            updateScheduled = false;
+            updateVisibility(viewport);
+        });
+    }
+
+    void releaseAll() {
+        for (CodeBlockPanel block : live) {
+            block.detachEditor();
+        }
+        live.clear();
+        idle.clear();
+        blocks.clear();
+    }
+
+    @Override
+    public void dispose() {
+        releaseAll();
+    }
+
+    String describe() {
+        return blocks.size() + " code blocks, " + live.size() + " live editors, "
+                + created + " created, " + reused + " reused";
+    }
+
+    private void updateVisibility(JViewport viewport) {
+        Component view = viewport.getView();
+        if (view == null) {
+            return;
+        }
+        Rectangle visible = viewport.getViewRect();
+        List<CodeBlockPanel> shown = new ArrayList<>();
+        for (Iterator<CodeBlockPanel> it = blocks.iterator(); it.hasNext(); ) {
+            CodeBlockPanel block = it.next();
+            if (!SwingUtilities.isDescendingFrom(block, view)) {
+                it.remove();
+                if (live.remove(block)) {
+                    release(block);
+                }
+                continue;
+            }
+            Rectangle bounds = SwingUtilities.convertRectangle(block.getParent(), block.getBounds(), view);
+            if (bounds.intersects(visible)) {
+                shown.add(block);
+            }
+        }
+        for (Iterator<CodeBlockPanel> it = live.iterator(); it.hasNext(); ) {
+            CodeBlockPanel block = it.next();
+            if (!shown.contains(block)) {
+                it.remove();
+                release(block);
+            }
+        }
+        for (int i = 0; i < shown.size() && i < MAX_LIVE_EDITORS; i++) {
+            materialize(shown.get(i));
+        }
+    }
+
+    private void release(CodeBlockPanel block) {
+        if (block == null) {
+            return;
+        }
+        EditorTextField editor = block.detachEditor();
+        if (editor != null && idle.size() < MAX_IDLE_EDITORS) {
+            idle.addLast(editor);
+        }
+    }
+
+    private EditorTextField createEditor() {
+        EditorTextField editorTextField = new EditorTextField("", project, PlainTextFileType.INSTANCE);
+        editorTextField.setOneLineMode(false);
+        editorTextField.setViewer(true);
+        editorTextField.ensureWillComputePreferredSize();
+        editorTextField.addSettingsProvider(editor -> {
+            editor.getSettings().setUseSoftWraps(true);
+            editor.getSettings().setLineNumbersShown(true);
+            editor.getSettings().setGutterIconsShown(false);
+            editor.setBackgroundColor(UIUtil.getPanelBackground());
+            editor.getScrollPane().setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_NEVER);
+            editor.getScrollPane().setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+        });
+        editorTextField.setBorder(BorderFactory.createCompoundBorder(
+                JBUI.Borders.empty(4, 8),
+                JBUI.Borders.customLine(JBColor.border(), 1)
+        ));
+        editorTextField.setAlignmentX(Component.LEFT_ALIGNMENT);
+        editorTextField.setMaximumSize(new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE));
+        return editorTextField;
+    }
+}
@@ -0,0 +1,217 @@
+package cn.lacknb.blog.llm.stream;
+
+import com.intellij.lexer.Lexer;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.colors.EditorColorsListener;
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.editor.colors.EditorColorsScheme;
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+import com.intellij.openapi.editor.markup.HighlighterLayer;
+import com.intellij.openapi.editor.markup.HighlighterTargetArea;
+import com.intellij.openapi.editor.markup.MarkupModel;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.fileTypes.SyntaxHighlighter;
+import com.intellij.openapi.fileTypes.SyntaxHighlighterFactory;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+/**
+ * Lexer-based highlighting for finished code blocks, computed off the EDT and cached until the
+ * color scheme changes.
+ */
+final class CodeHighlightCache {
+    private static final int MAX_ENTRIES = 256;
+    private static final int MAX_CACHED_CHARS = 32 * 1024;
+    private static final ExecutorService EXECUTOR =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("LLM Code Highlight", 1);
+    private static final Map<Key, Highlights> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Highlights> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private static long hits;
+    private static long misses;
+    private static int schemeGeneration;
+
+    private CodeHighlightCache() {
+    }
+
+    /**
+     * Called on the EDT; {@code onEdt} runs right away on a cache hit.
+     */
+    static void highlight(Project project, FileType fileType, String language, String text,
+                          Consumer<Highlights> onEdt) {
+        EditorColorsScheme scheme = EditorColorsManager.getInstance().getGlobalScheme();
+        Key key = text.length() <= MAX_CACHED_CHARS ? new Key(language, text) : null;
+        Highlights cached = null;
+        int generation;
+        synchronized (CACHE) {
+            generation = schemeGeneration;
+            if (key != null) {
+                cached = CACHE.get(key);
+            }
+            if (cached != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+        if (cached != null) {
+            onEdt.accept(cached);
+            return;
+        }
+        ReadAction.nonBlocking(() -> compute(project, fileType, scheme, text))
+                .expireWith(project)
+                .finishOnUiThread(ModalityState.any(), highlights -> {
+                    synchronized (CACHE) {
+                        // Highlights computed with a scheme that changed since are not kept.
+                        if (key != null && generation == schemeGeneration) {
+                            CACHE.put(key, highlights);
+                        }
+                    }
+                    onEdt.accept(highlights);
+                })
+                .submit(EXECUTOR);
+    }
+
+    static void invalidate() {
+        synchronized (CACHE) {
+            schemeGeneration++;
+            CACHE.clear();
+        }
+    }
+
+    static String describe() {
+        synchronized (CACHE) {
+            return "highlight cache " + CACHE.size() + " entries, " + hits + " hits, " + misses + " misses";
+        }
+    }
+
+    private static Highlights compute(Project project, FileType fileType, EditorColorsScheme scheme, String text) {
+        Highlights highlights = new Highlights();
+        SyntaxHighlighter highlighter = SyntaxHighlighterFactory.getSyntaxHighlighter(fileType, project, null);
+        if (highlighter == null) {
+            return highlights;
+        }
+        Lexer lexer = highlighter.getHighlightingLexer();
+        lexer.start(text, 0, text.length(), 0);
+        IElementType tokenType;
+        while ((tokenType = lexer.getTokenType()) != null) {
+            TextAttributes attributes = attributesFor(scheme, highlighter.getTokenHighlights(tokenType));
+            if (attributes != null) {
+                highlights.add(lexer.getTokenStart(), lexer.getTokenEnd(), attributes);
+            }
+            lexer.advance();
+        }
+        return highlights;
+    }
+
+    private static TextAttributes attributesFor(EditorColorsScheme scheme, TextAttributesKey[] keys) {
+        TextAttributes result = null;
+        for (TextAttributesKey key : keys) {
+            TextAttributes attributes = scheme.getAttributes(key);
+            if (attributes != null) {
+                result = attributes;
+            }
+        }
+        return result;
+    }
+
+    static final class Highlights {
+        private final List<int[]> ranges = new ArrayList<>();
+        private final List<TextAttributes> attributes = new ArrayList<>();
+
+        private void add(int start, int end, TextAttributes textAttributes) {
+            int last = ranges.size() - 1;
+            if (last >= 0 && ranges.get(last)[1] == start && attributes.get(last) == textAttributes) {
+                ranges.get(last)[1] = end;
+                return;
+            }
+            ranges.add(new int[]{start, end});
+            attributes.add(textAttributes);
+        }
+
+        /**
+         * Called on the EDT. Replaces all highlighters of {@code editor}.
+         */
+        void applyTo(Editor editor) {
+            MarkupModel markupModel = editor.getMarkupModel();
+            markupModel.removeAllHighlighters();
+            int length = editor.getDocument().getTextLength();
+            for (int i = 0; i < ranges.size(); i++) {
+                int[] range = ranges.get(i);
+                if (range[1] > length) {
+                    break;
+                }
+                markupModel.addRangeHighlighter(range[0], range[1], HighlighterLayer.SYNTAX,
+                        attributes.get(i), HighlighterTargetArea.EXACT_RANGE);
+            }
+        }
+    }
+
+    /**
+     * Registered in plugin.xml.
+     */
+    public static final class SchemeListener implements EditorColorsListener {
+        @Override
+        public void globalSchemeChange(EditorColorsScheme scheme) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Hashes the code so entries do not retain it.
+     */
+    private static final class Key {
+        private final String language;
+        private final long textHash;
+        private final int length;
+
+        Key(String language, String text) {
+            this.language = language;
+            this.textHash = fnv1a(text);
+            this.length = text.length();
+        }
+
+        private static long fnv1a(String text) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < text.length(); i++) {
+                hash ^= text.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return textHash == other.textHash
+                    && length == other.length
+                    && Objects.equals(language, other.language);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(textHash) * 31 + Objects.hashCode(language);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package cn.lacknb.blog.llm.stream;
+
+import com.intellij.openapi.Disposable;
+
+import javax.swing.Timer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Per tool window EDT frame loop; frame interval and chunk size adapt to stay within
+ * {@link #FRAME_BUDGET_NANOS}.
+ */
+final class FrameScheduler implements Disposable {
+    private static final long FRAME_BUDGET_NANOS = 8_000_000L;
+    private static final int MIN_INTERVAL_MS = 16;
+    private static final int MAX_INTERVAL_MS = 120;
+    private static final int INITIAL_INTERVAL_MS = 33;
+    private static final int MIN_CHUNK_SIZE = 64;
+    private static final int MAX_CHUNK_SIZE = 8192;
+    private static final int INITIAL_CHUNK_SIZE = 512;
+
+    interface Task {
+        /**
+         * Returns true if the task wants the next frame too.
+         */
+        boolean runFrame(int chunkSize);
+    }
+
+    private final Set<Task> pending = new LinkedHashSet<>();
+    private final Timer timer;
+    private final SlowFrameLog slowFrames = new SlowFrameLog();
+    private long dueNanos;
+    private int intervalMs = INITIAL_INTERVAL_MS;
+    private int chunkSize = INITIAL_CHUNK_SIZE;
+    private long ticks;
+    private long overBudgetTicks;
+    private long maxTickNanos;
+    private boolean disposed;
+
+    FrameScheduler() {
+        timer = new Timer(intervalMs, e -> tick());
+        timer.setRepeats(true);
+    }
+
+    void request(Task task) {
+        if (disposed) {
+            return;
+        }
+        pending.add(task);
+        if (!timer.isRunning()) {
+            timer.setInitialDelay(intervalMs);
+            timer.start();
+            dueNanos = System.nanoTime() + intervalMs * 1_000_000L;
+        }
+    }
+
+    void cancel(Task task) {
+        pending.remove(task);
+    }
+
+    @Override
+    public void dispose() {
+        disposed = true;
+        timer.stop();
+        pending.clear();
+    }
+
+    boolean isRunning() {
+        return timer.isRunning();
+    }
+
+    SlowFrameLog getSlowFrames() {
+        return slowFrames;
+    }
+
+    String describe() {
+        return ticks + " frames, " + overBudgetTicks + " over budget, max frame "
+                + maxTickNanos / 1_000_000L + " ms, interval " + intervalMs + " ms, chunk " + chunkSize;
+    }
+
+    private void tick() {
+        if (pending.isEmpty()) {
+            timer.stop();
+            return;
+        }
+        long start = System.nanoTime();
+        slowFrames.beginFrame();
+        List<Task> tasks = new ArrayList<>(pending);
+        pending.clear();
+        for (Task task : tasks) {
+            if (task.runFrame(chunkSize)) {
+                pending.add(task);
+            }
+        }
+        long end = System.nanoTime();
+        long elapsed = end - start;
+        slowFrames.endFrame(elapsed, start - dueNanos);
+        ticks++;
+        maxTickNanos = Math.max(maxTickNanos, elapsed);
+        adapt(elapsed);
+        dueNanos = end + intervalMs * 1_000_000L;
+        if (pending.isEmpty()) {
+            timer.stop();
+        }
+    }
+
+    private void adapt(long elapsed) {
+        if (elapsed > FRAME_BUDGET_NANOS) {
+            overBudgetTicks++;
+            intervalMs = Math.min(MAX_INTERVAL_MS, intervalMs * 3 / 2);
+            chunkSize = Math.max(MIN_CHUNK_SIZE, chunkSize / 2);
+        } else if (elapsed < FRAME_BUDGET_NANOS / 2) {
+            intervalMs = Math.max(MIN_INTERVAL_MS, intervalMs - 4);
+            chunkSize = Math.min(MAX_CHUNK_SIZE, chunkSize + chunkSize / 4);
+        }
+        timer.setDelay(intervalMs);
+    }
+}
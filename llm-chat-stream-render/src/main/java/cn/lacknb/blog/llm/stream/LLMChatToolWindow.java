@@ -1,12 +1,23 @@
 package cn.lacknb.blog.llm.stream;
 
 import com.intellij.icons.AllIcons;
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.actionSystem.ActionManager;
 import com.intellij.openapi.actionSystem.ActionToolbar;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.DefaultActionGroup;
+import com.intellij.openapi.actionSystem.ToggleAction;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.fileChooser.FileChooserFactory;
+import com.intellij.openapi.fileChooser.FileSaverDescriptor;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.vfs.VirtualFileWrapper;
 import com.intellij.openapi.wm.ToolWindow;
 import com.intellij.openapi.wm.ToolWindowManager;
 import com.intellij.ui.JBColor;
@@ -32,16 +43,26 @@ import java.awt.FlowLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
-public class LLMChatToolWindow {
+/**
+ * Disposed with its tool window content, together with its frame timer, editor pool and messages.
+ */
+public class LLMChatToolWindow implements Disposable {
     public static final String TOOL_WINDOW_ID = "LLM Chat Stream";
     private static final String WINDOW_KEY = "LLMChatToolWindowInstance";
 
     private final Project project;
     private final JPanel mainPanel;
-    private final JPanel messagesPanel;
+    private final VirtualMessageList messagesPanel;
     private final JBScrollPane scrollPane;
     private final JTextArea inputArea;
     private final JButton sendButton;
@@ -51,26 +72,31 @@ public class LLMChatToolWindow {
     private final List<ChatMessage> history = new ArrayList<>();
     private OpenAIChatService.StreamSession currentSession;
     private long requestCounter = 0L;
-    private long activeRequestId = -1L;
+    // Written on the EDT, read by the stream thread to drop deltas of superseded requests.
+    private volatile long activeRequestId = -1L;
+    private final ModelTierStats tierStats = new ModelTierStats();
+    private List<ChatMessage> escalationMessages;
+    private AssistantRow streamingRow;
 
     private boolean streaming = false;
-    private final javax.swing.Timer scrollTimer;
+    private final FrameScheduler frameScheduler = new FrameScheduler();
+    private final CodeEditorPool codeEditorPool;
+    private final FrameScheduler.Task scrollTask = chunkSize -> flushScroll();
     private boolean autoScrollEnabled = true;
     private boolean programmaticScroll = false;
 
     public LLMChatToolWindow(Project project) {
         this.project = project;
         LLMConfig config = LLMConfigLoader.load(project);
-        String baseUrl = config != null ? config.getBaseUrl() : System.getenv("OPENAI_BASE_URL");
-        String model = config != null ? config.getModel() : System.getenv("OPENAI_MODEL");
-        String apiKey = config != null ? config.getApiKey() : System.getenv("OPENAI_API_KEY");
-        this.chatService = new OpenAIChatService(baseUrl, model, apiKey);
+        this.chatService = ProjectChatService.getInstance(project);
+        this.codeEditorPool = new CodeEditorPool(project, frameScheduler.getSlowFrames());
+        Disposer.register(this, frameScheduler);
+        Disposer.register(this, codeEditorPool);
 
         mainPanel = new JPanel(new BorderLayout());
         mainPanel.putClientProperty(WINDOW_KEY, this);
 
-        messagesPanel = new ScrollablePanel();
-        messagesPanel.setLayout(new javax.swing.BoxLayout(messagesPanel, javax.swing.BoxLayout.Y_AXIS));
+        messagesPanel = new VirtualMessageList();
         messagesPanel.setBackground(UIUtil.getPanelBackground());
         messagesPanel.setBorder(JBUI.Borders.empty());
 
@@ -78,6 +104,7 @@ public class LLMChatToolWindow {
         scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
         scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
         scrollPane.setBorder(JBUI.Borders.empty());
+        messagesPanel.install(scrollPane.getViewport());
         installScrollBehavior();
 
         inputArea = new JTextArea(3, 40);
@@ -100,8 +127,6 @@ public class LLMChatToolWindow {
         mainPanel.add(createInputPanel(), BorderLayout.SOUTH);
 
         registerSendShortcut();
-        scrollTimer = new javax.swing.Timer(100, e -> flushScroll());
-        scrollTimer.setRepeats(true);
         String tip = "Hello! Ask a question below. Markdown and code blocks are supported.";
         if (config == null) {
             tip += "\n\nTip: set OPENAI_API_KEY or rebuild the plugin with an embedded config.";
@@ -113,6 +138,10 @@ public class LLMChatToolWindow {
         return mainPanel;
     }
 
+    FrameScheduler getFrameScheduler() {
+        return frameScheduler;
+    }
+
     public static LLMChatToolWindow findInstance(Project project) {
         ToolWindow toolWindow = ToolWindowManager.getInstance(project).getToolWindow(TOOL_WINDOW_ID);
         if (toolWindow == null) {
@@ -141,6 +170,22 @@ public class LLMChatToolWindow {
         });
     }
 
+    static void showAndAdopt(Project project, SpeculativeRequest request) {
+        ToolWindow toolWindow = ToolWindowManager.getInstance(project).getToolWindow(TOOL_WINDOW_ID);
+        if (toolWindow == null) {
+            request.getSession().cancel();
+            return;
+        }
+        toolWindow.show(() -> {
+            LLMChatToolWindow instance = findInstance(project);
+            if (instance != null) {
+                instance.adoptSpeculative(request);
+            } else {
+                request.getSession().cancel();
+            }
+        });
+    }
+
     private JComponent createToolbar() {
         DefaultActionGroup group = new DefaultActionGroup();
 
@@ -159,6 +204,65 @@ public class LLMChatToolWindow {
             }
         });
 
+        if (chatService.isCascadeEnabled()) {
+            group.add(new AnAction("Ask Main Model", "Re-send the last prompt to the main model", AllIcons.Actions.Forward) {
+                @Override
+                public void update(@NotNull AnActionEvent e) {
+                    e.getPresentation().setEnabled(!streaming && escalationMessages != null);
+                }
+
+                @Override
+                public void actionPerformed(@NotNull AnActionEvent e) {
+                    escalate(false);
+                }
+            });
+
+            group.add(new AnAction("Model Latency", "Show per-tier latency stats", AllIcons.General.Information) {
+                @Override
+                public void actionPerformed(@NotNull AnActionEvent e) {
+                    Messages.showInfoMessage(project, tierStats.summary(chatService), "Model Latency");
+                }
+            });
+        }
+
+        group.add(new ToggleAction("Prefetch Method Actions", "Start the likely method action request while its popup is open", AllIcons.Actions.Execute) {
+            @Override
+            public boolean isSelected(@NotNull AnActionEvent e) {
+                return SpeculativeRequest.isEnabled();
+            }
+
+            @Override
+            public void setSelected(@NotNull AnActionEvent e, boolean state) {
+                SpeculativeRequest.setEnabled(state);
+            }
+        });
+
+        group.add(new AnAction("Export Chat", "Save the conversation as Markdown or HTML", AllIcons.ToolbarDecorator.Export) {
+            @Override
+            public void update(@NotNull AnActionEvent e) {
+                e.getPresentation().setEnabled(messagesPanel.getRowCount() > 0);
+            }
+
+            @Override
+            public void actionPerformed(@NotNull AnActionEvent e) {
+                exportChat();
+            }
+        });
+
+        group.add(new AnAction("Slow Frames", "Show chat rendering frames over the EDT budget", AllIcons.Actions.Lightning) {
+            @Override
+            public void actionPerformed(@NotNull AnActionEvent e) {
+                Messages.showInfoMessage(project, frameScheduler.getSlowFrames().describe(), "Slow Frames");
+            }
+        });
+
+        group.add(new AnAction("Memory Report", "Show retained memory per assistant message", AllIcons.Actions.Profile) {
+            @Override
+            public void actionPerformed(@NotNull AnActionEvent e) {
+                Messages.showInfoMessage(project, memoryReport(), "Message Memory");
+            }
+        });
+
         ActionToolbar toolbar = ActionManager.getInstance().createActionToolbar("LLMChatToolbar", group, true);
         toolbar.setTargetComponent(mainPanel);
         return toolbar.getComponent();
@@ -209,7 +313,14 @@ public class LLMChatToolWindow {
         if (text == null || text.trim().isEmpty()) {
             return;
         }
+        startRequest(text, newSession, null);
+    }
 
+    void adoptSpeculative(SpeculativeRequest request) {
+        startRequest(request.getPrompt(), true, request);
+    }
+
+    private void startRequest(String text, boolean newSession, SpeculativeRequest speculative) {
         if (streaming) {
             stopCurrentStream("Previous task stopped.", false);
         }
@@ -222,46 +333,97 @@ public class LLMChatToolWindow {
         addUserMessage(text);
         history.add(new ChatMessage("user", text));
 
-        StreamMarkdownPanel assistantPanel = addAssistantMessagePanel();
+        List<ChatMessage> requestMessages = new ArrayList<>(history);
+        OpenAIChatService.ModelTier tier = speculative != null ? speculative.getTier() : chatService.getInitialTier();
+        startStream(tier, requestMessages, speculative);
+    }
+
+    private void startStream(OpenAIChatService.ModelTier tier,
+                             List<ChatMessage> requestMessages,
+                             SpeculativeRequest speculative) {
+        ResponseBuffer response = speculative != null ? speculative.getResponse() : new ResponseBuffer();
+        AssistantRow assistantRow = addAssistantRow(response, false);
+        streamingRow = assistantRow;
         ChatMessage assistantMessage = new ChatMessage("assistant", "");
         history.add(assistantMessage);
+        escalationMessages = null;
 
         setStreaming(true);
         long requestId = ++requestCounter;
         activeRequestId = requestId;
-        List<ChatMessage> requestMessages = new ArrayList<>(history);
-        requestMessages.remove(requestMessages.size() - 1);
+        OpenAIChatService.StreamHandler handler = createStreamHandler(
+                requestId, tier, requestMessages, assistantRow, assistantMessage);
+        if (speculative != null) {
+            currentSession = speculative.getSession();
+            speculative.attach(handler);
+            return;
+        }
+        currentSession = chatService.streamChatCompletion(tier, requestMessages, response, handler);
+    }
+
+    private void escalate(boolean automatic) {
+        List<ChatMessage> requestMessages = escalationMessages;
+        if (streaming || requestMessages == null) {
+            return;
+        }
+        tierStats.recordEscalation(automatic);
+        history.remove(history.size() - 1);
+        String model = chatService.getModel(OpenAIChatService.ModelTier.STRONG);
+        addAssistantInfo(automatic
+                ? "The fast answer looks incomplete, asking " + model + "..."
+                : "Asking " + model + "...", false);
+        startStream(OpenAIChatService.ModelTier.STRONG, requestMessages, null);
+    }
 
-        currentSession = chatService.streamChatCompletion(requestMessages, new OpenAIChatService.StreamHandler() {
-            private final StringBuilder buffer = new StringBuilder();
+    private OpenAIChatService.StreamHandler createStreamHandler(long requestId,
+                                                                OpenAIChatService.ModelTier tier,
+                                                                List<ChatMessage> requestMessages,
+                                                                AssistantRow assistantRow,
+                                                                ChatMessage assistantMessage) {
+        long startNanos = System.nanoTime();
+        StreamHandoff handoff = new StreamHandoff(() -> requestId == activeRequestId, () -> {
+            assistantRow.update();
+            requestAutoScroll();
+        });
+        return new OpenAIChatService.StreamHandler() {
+            private boolean receivedFirstToken;
+            private boolean truncated;
 
             @Override
             public void onDelta(String text) {
                 if (requestId != activeRequestId) {
                     return;
                 }
-                buffer.append(text);
-                javax.swing.SwingUtilities.invokeLater(() -> {
-                    if (requestId != activeRequestId) {
-                        return;
-                    }
-                    assistantPanel.appendText(text);
-                    requestAutoScroll();
-                });
+                if (!receivedFirstToken) {
+                    receivedFirstToken = true;
+                    tierStats.recordFirstToken(tier, elapsedMillis(startNanos));
+                }
+                handoff.offer();
             }
 
             @Override
-            public void onComplete(String fullText) {
+            public void onTruncated() {
+                truncated = true;
+            }
+
+            @Override
+            public void onComplete(ResponseBuffer response) {
                 if (requestId != activeRequestId) {
                     return;
                 }
-                assistantMessage.setContent(fullText);
-                javax.swing.SwingUtilities.invokeLater(() -> {
-                    if (requestId != activeRequestId) {
-                        return;
-                    }
-                    assistantPanel.finish();
+                assistantMessage.setContent(response);
+                tierStats.recordCompletion(tier, elapsedMillis(startNanos));
+                boolean weakAnswer = CascadePolicy.shouldEscalate(response, truncated);
+                handoff.finish(() -> {
+                    assistantRow.finish();
                     setStreaming(false);
+                    statusLabel.setToolTipText(describeLastStream(handoff));
+                    if (tier == OpenAIChatService.ModelTier.FAST) {
+                        escalationMessages = requestMessages;
+                        if (weakAnswer) {
+                            escalate(true);
+                        }
+                    }
                 });
             }
 
@@ -272,17 +434,30 @@ public class LLMChatToolWindow {
                 }
                 String message = "**Error:** " + error.getMessage();
                 assistantMessage.setContent(message);
-                javax.swing.SwingUtilities.invokeLater(() -> {
-                    if (requestId != activeRequestId) {
-                        return;
-                    }
-                    assistantPanel.appendText("\n\n" + message);
-                    assistantPanel.finish();
+                handoff.finish(() -> {
+                    assistantRow.update();
+                    assistantRow.write("\n\n" + message);
+                    assistantRow.finish();
                     requestAutoScroll();
                     setStreaming(false);
                 });
             }
-        });
+        };
+    }
+
+    private String describeLastStream(StreamHandoff handoff) {
+        return "Last stream: " + handoff.describe()
+                + "; " + frameScheduler.describe()
+                + "; " + messagesPanel.getLiveRowCount() + " of " + messagesPanel.getRowCount() + " rows live"
+                + "; " + codeEditorPool.describe()
+                + "; " + chatService.getActiveStreamCount() + " active streams"
+                + "; " + StreamingDocumentWriter.describe()
+                + "; " + CodeHighlightCache.describe()
+                + "; " + RenderedMarkdownCache.describe();
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000L;
     }
 
     private void setStreaming(boolean value) {
@@ -293,9 +468,13 @@ public class LLMChatToolWindow {
         stopButton.setEnabled(value);
         if (!value) {
             currentSession = null;
+            if (streamingRow != null) {
+                streamingRow.finish();
+                streamingRow = null;
+            }
         }
         if (!value) {
-            scrollTimer.stop();
+            frameScheduler.cancel(scrollTask);
         }
     }
 
@@ -315,51 +494,117 @@ public class LLMChatToolWindow {
     }
 
     private void clearChat() {
-        messagesPanel.removeAll();
-        messagesPanel.revalidate();
-        messagesPanel.repaint();
+        escalationMessages = null;
+        for (VirtualMessageList.Row row : messagesPanel.getRows()) {
+            if (row instanceof AssistantRow) {
+                Disposer.dispose((AssistantRow) row);
+            }
+        }
+        codeEditorPool.releaseAll();
+        messagesPanel.clear();
+        history.clear();
+    }
+
+    /**
+     * {@link #chatService} belongs to the project, so only this window's stream is cancelled.
+     */
+    @Override
+    public void dispose() {
+        activeRequestId = -1L;
+        OpenAIChatService.StreamSession session = currentSession;
+        currentSession = null;
+        if (session != null) {
+            session.cancel();
+        }
+        streamingRow = null;
+        escalationMessages = null;
+        messagesPanel.clear();
         history.clear();
     }
 
     private void addUserMessage(String text) {
-        JPanel bubble = new JPanel(new BorderLayout());
-        bubble.setBackground(new JBColor(0xE3F2FD, 0x2F3E46));
-        bubble.setBorder(JBUI.Borders.empty(8, 10));
-        bubble.setMaximumSize(new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE));
-
-        JTextArea area = new WidthTrackingTextArea(text);
-        area.setEditable(false);
-        area.setLineWrap(true);
-        area.setWrapStyleWord(true);
-        area.setOpaque(false);
-        area.setFont(UIUtil.getLabelFont());
-
-        bubble.add(area, BorderLayout.CENTER);
-
-        JPanel row = createMessageRow(bubble, true);
-        messagesPanel.add(row);
-        messagesPanel.revalidate();
-        messagesPanel.repaint();
+        messagesPanel.addRow(new UserRow(text));
         scrollToBottom();
     }
 
-    private StreamMarkdownPanel addAssistantMessagePanel() {
-        JPanel bubble = new JPanel(new BorderLayout());
-        bubble.setBackground(UIUtil.getPanelBackground());
-        bubble.setBorder(JBUI.Borders.compound(JBUI.Borders.customLine(JBColor.border(), 1), JBUI.Borders.empty(6, 8)));
-        bubble.setMaximumSize(new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE));
+    /**
+     * Estimated heap of each response buffer; what the components copy is not counted.
+     */
+    private String memoryReport() {
+        StringBuilder report = new StringBuilder();
+        long total = 0;
+        int index = 0;
+        for (VirtualMessageList.Row row : messagesPanel.getRows()) {
+            if (!(row instanceof AssistantRow)) {
+                continue;
+            }
+            AssistantRow assistantRow = (AssistantRow) row;
+            index++;
+            long textBytes = assistantRow.response.getRetainedBytes();
+            total += textBytes;
+            report.append('#').append(index).append(": ")
+                    .append(assistantRow.finished ? "text " : "streaming, text ").append(formatBytes(textBytes));
+            report.append(isInHistory(assistantRow.response) ? ", buffer shared with history" : ", buffer not in history")
+                    .append(assistantRow.getComponent() != null ? ", components kept" : ", components released")
+                    .append('\n');
+        }
+        report.append("Total: ").append(formatBytes(total));
+        return report.toString();
+    }
+
+    /**
+     * Exports the rows rather than {@link #history}, which only holds the current exchange. The
+     * views taken here fix what a still streaming answer contributes.
+     */
+    private void exportChat() {
+        FileSaverDescriptor descriptor = new FileSaverDescriptor("Export Chat", "Save the conversation as Markdown or HTML", "md", "html");
+        VirtualFileWrapper target = FileChooserFactory.getInstance().createSaveFileDialog(descriptor, project).save(null, "chat.md");
+        if (target == null) {
+            return;
+        }
+        File file = target.getFile();
+        List<ChatMessage> messages = new ArrayList<>();
+        for (VirtualMessageList.Row row : messagesPanel.getRows()) {
+            if (row instanceof UserRow) {
+                messages.add(new ChatMessage("user", ((UserRow) row).text));
+            } else if (row instanceof AssistantRow && !((AssistantRow) row).notice) {
+                ResponseBuffer response = ((AssistantRow) row).response;
+                messages.add(new ChatMessage("assistant", response.subSequence(0, response.length())));
+            }
+        }
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Exporting chat", true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+                    new TranscriptExporter().export(messages, TranscriptExporter.Format.forFile(file), out, indicator);
+                } catch (IOException e) {
+                    ApplicationManager.getApplication().invokeLater(() ->
+                            Messages.showErrorDialog(project, "Could not write " + file + ": " + e.getMessage(), "Export Chat"));
+                }
+            }
+        });
+    }
 
-        StreamMarkdownPanel panel = new StreamMarkdownPanel(project);
-        panel.setAlignmentX(Component.LEFT_ALIGNMENT);
+    private boolean isInHistory(ResponseBuffer response) {
+        for (ChatMessage message : history) {
+            if (message.getContentText() == response) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        bubble.add(panel, BorderLayout.CENTER);
+    private static String formatBytes(long bytes) {
+        return bytes < 1024 ? bytes + " B" : String.format("%.1f KB", bytes / 1024.0);
+    }
 
-        JPanel row = createMessageRow(bubble, false);
-        messagesPanel.add(row);
-        messagesPanel.revalidate();
-        messagesPanel.repaint();
+    private AssistantRow addAssistantRow(ResponseBuffer response, boolean notice) {
+        AssistantRow row = new AssistantRow(response, notice);
+        Disposer.register(this, row);
+        messagesPanel.addRow(row);
+        messagesPanel.setPinned(row, true);
         scrollToBottom();
-        return panel;
+        return row;
     }
 
     private JPanel createMessageRow(JComponent bubble, boolean alignRight) {
@@ -379,26 +624,178 @@ public class LLMChatToolWindow {
         return row;
     }
 
+    private final class UserRow extends VirtualMessageList.Row {
+        private static final String AREA_KEY = "LLMChatUserRowArea";
+        private final String text;
+
+        UserRow(String text) {
+            this.text = text;
+        }
+
+        @Override
+        JComponent create() {
+            JPanel bubble = new JPanel(new BorderLayout());
+            bubble.setBackground(new JBColor(0xE3F2FD, 0x2F3E46));
+            bubble.setBorder(JBUI.Borders.empty(8, 10));
+            bubble.setMaximumSize(new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE));
+
+            JTextArea area = new WidthTrackingTextArea(text);
+            area.setEditable(false);
+            area.setLineWrap(true);
+            area.setWrapStyleWord(true);
+            area.setOpaque(false);
+            area.setFont(UIUtil.getLabelFont());
+
+            bubble.add(area, BorderLayout.CENTER);
+
+            JPanel row = createMessageRow(bubble, true);
+            row.putClientProperty(AREA_KEY, area);
+            return row;
+        }
+
+        @Override
+        String recycleKind() {
+            return "user";
+        }
+
+        @Override
+        void bind(JComponent component) {
+            ((JTextArea) component.getClientProperty(AREA_KEY)).setText(text);
+        }
+    }
+
+    /**
+     * An assistant message, pinned while its answer streams. Its panel is disposed when the list
+     * drops the row's component and rebuilt from the sealed response when it is needed again.
+     */
+    private final class AssistantRow extends VirtualMessageList.Row implements Disposable {
+        private final ResponseBuffer response;
+        /**
+         * Set for the window's own notices, which are not part of the conversation.
+         */
+        private final boolean notice;
+        private StreamMarkdownPanel panel;
+        private int shown;
+        private boolean finished;
+
+        AssistantRow(ResponseBuffer response, boolean notice) {
+            this.response = response;
+            this.notice = notice;
+        }
+
+        void update() {
+            if (finished) {
+                return;
+            }
+            int length = response.length();
+            if (length > shown && getComponent() != null) {
+                panel.appendText(response.subSequence(shown, length));
+            }
+            shown = length;
+        }
+
+        /**
+         * Only called once the stream has stopped writing.
+         */
+        void write(String text) {
+            response.append(text);
+            update();
+        }
+
+        void finish() {
+            if (finished) {
+                return;
+            }
+            // A stopped stream may still try to append after this.
+            response.seal();
+            update();
+            finished = true;
+            if (getComponent() != null) {
+                panel.finish();
+            }
+            messagesPanel.setPinned(this, false);
+        }
+
+        @Override
+        JComponent create() {
+            JPanel bubble = new JPanel(new BorderLayout());
+            bubble.setBackground(UIUtil.getPanelBackground());
+            bubble.setBorder(JBUI.Borders.compound(JBUI.Borders.customLine(JBColor.border(), 1), JBUI.Borders.empty(6, 8)));
+            bubble.setMaximumSize(new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE));
+
+            panel = new StreamMarkdownPanel(project, frameScheduler, codeEditorPool);
+            Disposer.register(this, panel);
+            panel.setAlignmentX(Component.LEFT_ALIGNMENT);
+            CharSequence text = finished ? response : response.subSequence(0, shown);
+            panel.appendRebuiltText(text);
+            if (finished) {
+                panel.finish();
+            }
+
+            bubble.add(panel, BorderLayout.CENTER);
+            return createMessageRow(bubble, false);
+        }
+
+        @Override
+        void released() {
+            if (panel != null) {
+                Disposer.dispose(panel);
+                panel = null;
+            }
+        }
+
+        @Override
+        public void dispose() {
+            finished = true;
+            released();
+        }
+    }
+
     private static class WidthTrackingTextArea extends JTextArea {
+        private final PreferredSizeCache sizeCache = new PreferredSizeCache();
+        private int contentVersion;
+
         WidthTrackingTextArea(String text) {
             super(text);
         }
 
+        @Override
+        public void setText(String t) {
+            contentVersion++;
+            super.setText(t);
+        }
+
+        @Override
+        public void append(String str) {
+            contentVersion++;
+            super.append(str);
+        }
+
         @Override
         public Dimension getPreferredSize() {
             java.awt.Container parent = getParent();
-            if (parent != null && parent.getWidth() > 0) {
-                setSize(new Dimension(parent.getWidth(), Integer.MAX_VALUE));
+            int width = parent != null ? parent.getWidth() : 0;
+            if (width <= 0) {
+                return super.getPreferredSize();
             }
-            return super.getPreferredSize();
+            Dimension cached = sizeCache.get(contentVersion, width, getFont());
+            if (cached != null) {
+                return cached;
+            }
+            setSize(new Dimension(width, Integer.MAX_VALUE));
+            Dimension size = super.getPreferredSize();
+            sizeCache.put(contentVersion, width, getFont(), size);
+            return size;
         }
     }
 
     private void addAssistantInfo(String text, boolean remember) {
-        StreamMarkdownPanel panel = addAssistantMessagePanel();
-        panel.appendText(text);
+        ResponseBuffer response = new ResponseBuffer();
+        AssistantRow row = addAssistantRow(response, true);
+        row.write(text);
+        row.finish();
         if (remember) {
-            history.add(new ChatMessage("assistant", text));
+            history.add(new ChatMessage("assistant", response));
         }
     }
 
@@ -416,17 +813,20 @@ public class LLMChatToolWindow {
         if (!autoScrollEnabled) {
             return;
         }
-        if (!scrollTimer.isRunning()) {
-            scrollTimer.start();
-        }
+        frameScheduler.request(scrollTask);
     }
 
-    private void flushScroll() {
+    /**
+     * Blocks rendered in the background keep growing after the delta, so keep following.
+     */
+    private boolean flushScroll() {
         if (!autoScrollEnabled) {
-            scrollTimer.stop();
-            return;
+            return false;
         }
+        long start = System.nanoTime();
         scrollToBottom();
+        frameScheduler.getSlowFrames().record("flushScroll", "scroll", messagesPanel.getRowCount(), System.nanoTime() - start);
+        return streaming;
     }
 
     private boolean isNearBottom() {
@@ -438,6 +838,7 @@ public class LLMChatToolWindow {
     }
 
     private void installScrollBehavior() {
+        scrollPane.getViewport().addChangeListener(e -> codeEditorPool.scheduleVisibilityUpdate(scrollPane.getViewport()));
         JScrollBar vertical = scrollPane.getVerticalScrollBar();
         vertical.addAdjustmentListener(e -> {
             if (programmaticScroll) {
@@ -446,38 +847,11 @@ public class LLMChatToolWindow {
             if (e.getValueIsAdjusting()) {
                 if (!isNearBottom()) {
                     autoScrollEnabled = false;
-                    scrollTimer.stop();
+                    frameScheduler.cancel(scrollTask);
                 }
             } else if (isNearBottom()) {
                 autoScrollEnabled = true;
             }
         });
     }
-
-    private static class ScrollablePanel extends JPanel implements javax.swing.Scrollable {
-        @Override
-        public Dimension getPreferredScrollableViewportSize() {
-            return getPreferredSize();
-        }
-
-        @Override
-        public int getScrollableUnitIncrement(java.awt.Rectangle visibleRect, int orientation, int direction) {
-            return 10;
-        }
-
-        @Override
-        public int getScrollableBlockIncrement(java.awt.Rectangle visibleRect, int orientation, int direction) {
-            return 10;
-        }
-
-        @Override
-        public boolean getScrollableTracksViewportWidth() {
-            return true;
-        }
-
-        @Override
-        public boolean getScrollableTracksViewportHeight() {
-            return false;
-        }
-    }
 }
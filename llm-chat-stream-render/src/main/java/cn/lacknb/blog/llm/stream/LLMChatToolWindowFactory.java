@@ -1,6 +1,7 @@
 package cn.lacknb.blog.llm.stream;
 
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.wm.ToolWindow;
 import com.intellij.openapi.wm.ToolWindowFactory;
 import com.intellij.ui.content.Content;
@@ -16,6 +17,7 @@ public class LLMChatToolWindowFactory implements ToolWindowFactory {
     public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow) {
         LLMChatToolWindow window = new LLMChatToolWindow(project);
         Content content = ContentFactory.getInstance().createContent(window.getContent(), "", false);
+        Disposer.register(content, window);
         toolWindow.getContentManager().addContent(content);
     }
 }
@@ -4,6 +4,7 @@ public class LLMConfig {
     private String baseUrl;
     private String apiKey;
     private String model;
+    private String fastModel;
 
     public LLMConfig() {
     }
@@ -14,6 +15,11 @@ public class LLMConfig {
         this.model = model;
     }
 
+    public LLMConfig(String baseUrl, String apiKey, String model, String fastModel) {
+        this(baseUrl, apiKey, model);
+        this.fastModel = fastModel;
+    }
+
     public String getBaseUrl() {
         return baseUrl;
     }
@@ -25,4 +31,8 @@ public class LLMConfig {
     public String getModel() {
         return model;
     }
+
+    public String getFastModel() {
+        return fastModel;
+    }
 }
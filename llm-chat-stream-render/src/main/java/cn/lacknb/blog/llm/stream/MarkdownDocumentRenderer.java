@@ -0,0 +1,383 @@
+package cn.lacknb.blog.llm.stream;
+
+import org.commonmark.node.AbstractVisitor;
+import org.commonmark.node.BlockQuote;
+import org.commonmark.node.BulletList;
+import org.commonmark.node.Code;
+import org.commonmark.node.Emphasis;
+import org.commonmark.node.FencedCodeBlock;
+import org.commonmark.node.HardLineBreak;
+import org.commonmark.node.Heading;
+import org.commonmark.node.HtmlBlock;
+import org.commonmark.node.HtmlInline;
+import org.commonmark.node.Image;
+import org.commonmark.node.IndentedCodeBlock;
+import org.commonmark.node.Link;
+import org.commonmark.node.ListBlock;
+import org.commonmark.node.ListItem;
+import org.commonmark.node.Node;
+import org.commonmark.node.OrderedList;
+import org.commonmark.node.Paragraph;
+import org.commonmark.node.SoftLineBreak;
+import org.commonmark.node.StrongEmphasis;
+import org.commonmark.node.Text;
+import org.commonmark.node.ThematicBreak;
+import org.commonmark.parser.Parser;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument.ElementSpec;
+import javax.swing.text.MutableAttributeSet;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.html.HTML;
+import javax.swing.text.html.HTMLDocument;
+import javax.swing.text.html.HTMLEditorKit;
+import javax.swing.text.html.StyleSheet;
+
+/**
+ * Renders markdown straight into an {@link HTMLDocument} by feeding the document's reader the
+ * events the HTML parser would produce for {@link MarkdownRenderer#toHtml}. Safe to use off the EDT.
+ */
+final class MarkdownDocumentRenderer {
+    private static StyleSheet baseStyles;
+    private static int baseStylesTheme = -1;
+    private static final HTML.Tag[] HEADINGS = {
+            HTML.Tag.H1, HTML.Tag.H2, HTML.Tag.H3, HTML.Tag.H4, HTML.Tag.H5, HTML.Tag.H6
+    };
+
+    private final Parser parser = Parser.builder().build();
+
+    HTMLDocument render(String markdown) {
+        String source = markdown == null ? "" : markdown;
+        int theme = RenderedMarkdownCache.getTheme();
+        // The pane adds rules to the document's sheet, so it cannot be the shared one.
+        StyleSheet styles = new StyleSheet();
+        styles.addStyleSheet(getBaseStyles(theme));
+        RecordingDocument document = new RecordingDocument(styles, theme);
+        HTMLEditorKit.ParserCallback reader = document.getReader(0);
+        ElementSpec[] cached = RenderedMarkdownCache.get(source, theme);
+        if (cached != null) {
+            document.replay(reader, cached);
+            return document;
+        }
+        Node node = parser.parse(source);
+        Emitter emitter = new Emitter(reader);
+        emitter.start(HTML.Tag.HTML);
+        emitter.start(HTML.Tag.BODY);
+        node.accept(emitter);
+        emitter.end(HTML.Tag.BODY);
+        emitter.end(HTML.Tag.HTML);
+        try {
+            reader.flush();
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+        return document;
+    }
+
+    /**
+     * Caches {@code document}; only called for content that will not change anymore.
+     */
+    void remember(String markdown, HTMLDocument document) {
+        if (document instanceof RecordingDocument) {
+            RecordingDocument recording = (RecordingDocument) document;
+            if (recording.specs != null) {
+                RenderedMarkdownCache.put(markdown == null ? "" : markdown, recording.theme, recording.specs);
+                recording.specs = null;
+            }
+        }
+    }
+
+    private static synchronized StyleSheet getBaseStyles(int theme) {
+        if (baseStyles == null || baseStylesTheme != theme) {
+            StyleSheet styles = new StyleSheet();
+            styles.addStyleSheet(new HTMLEditorKit().getStyleSheet());
+            styles.addRule(MarkdownRenderer.STYLE);
+            baseStyles = styles;
+            baseStylesTheme = theme;
+        }
+        return baseStyles;
+    }
+
+    private static final class RecordingDocument extends HTMLDocument {
+        private final int theme;
+        private ElementSpec[] specs;
+
+        RecordingDocument(StyleSheet styles, int theme) {
+            super(styles);
+            this.theme = theme;
+        }
+
+        @Override
+        protected void create(ElementSpec[] data) {
+            specs = data;
+            super.create(data);
+        }
+
+        /**
+         * {@code reader} finishes the document, which removes the implied end of the body.
+         */
+        void replay(HTMLEditorKit.ParserCallback reader, ElementSpec[] data) {
+            create(data);
+            specs = null;
+            try {
+                reader.flush();
+            } catch (BadLocationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static final class Emitter extends AbstractVisitor {
+        private final HTMLEditorKit.ParserCallback reader;
+        private final StringBuilder text = new StringBuilder();
+        private boolean space;
+        private boolean ignoreSpace;
+        private boolean lastBreaksFlow = true;
+
+        Emitter(HTMLEditorKit.ParserCallback reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public void visit(Heading heading) {
+            HTML.Tag tag = HEADINGS[Math.min(Math.max(heading.getLevel(), 1), 6) - 1];
+            start(tag);
+            visitChildren(heading);
+            end(tag);
+        }
+
+        @Override
+        public void visit(Paragraph paragraph) {
+            // Paragraphs of tight lists are rendered without <p>, as HtmlRenderer does.
+            Node parent = paragraph.getParent();
+            Node grandparent = parent == null ? null : parent.getParent();
+            if (grandparent instanceof ListBlock && ((ListBlock) grandparent).isTight()) {
+                visitChildren(paragraph);
+                return;
+            }
+            start(HTML.Tag.P);
+            visitChildren(paragraph);
+            end(HTML.Tag.P);
+        }
+
+        @Override
+        public void visit(BlockQuote blockQuote) {
+            start(HTML.Tag.BLOCKQUOTE);
+            visitChildren(blockQuote);
+            end(HTML.Tag.BLOCKQUOTE);
+        }
+
+        @Override
+        public void visit(BulletList bulletList) {
+            start(HTML.Tag.UL);
+            visitChildren(bulletList);
+            end(HTML.Tag.UL);
+        }
+
+        @Override
+        public void visit(OrderedList orderedList) {
+            MutableAttributeSet attributes = new SimpleAttributeSet();
+            Integer startNumber = orderedList.getMarkerStartNumber();
+            if (startNumber != null && startNumber != 1) {
+                attributes.addAttribute(HTML.Attribute.START, String.valueOf(startNumber));
+            }
+            start(HTML.Tag.OL, attributes);
+            visitChildren(orderedList);
+            end(HTML.Tag.OL);
+        }
+
+        @Override
+        public void visit(ListItem listItem) {
+            start(HTML.Tag.LI);
+            visitChildren(listItem);
+            end(HTML.Tag.LI);
+        }
+
+        @Override
+        public void visit(FencedCodeBlock fencedCodeBlock) {
+            String info = fencedCodeBlock.getInfo();
+            String language = info == null ? "" : info.trim().split("\\s+", 2)[0];
+            codeBlock(fencedCodeBlock.getLiteral(), language);
+        }
+
+        @Override
+        public void visit(IndentedCodeBlock indentedCodeBlock) {
+            codeBlock(indentedCodeBlock.getLiteral(), "");
+        }
+
+        @Override
+        public void visit(HtmlBlock htmlBlock) {
+            // HTML is escaped, so raw blocks show up as their literal text.
+            start(HTML.Tag.P);
+            text(htmlBlock.getLiteral());
+            end(HTML.Tag.P);
+        }
+
+        @Override
+        public void visit(ThematicBreak thematicBreak) {
+            simple(HTML.Tag.HR, new SimpleAttributeSet());
+        }
+
+        @Override
+        public void visit(Text text) {
+            text(text.getLiteral());
+        }
+
+        @Override
+        public void visit(Code code) {
+            start(HTML.Tag.CODE);
+            text(code.getLiteral());
+            end(HTML.Tag.CODE);
+        }
+
+        @Override
+        public void visit(Emphasis emphasis) {
+            start(HTML.Tag.EM);
+            visitChildren(emphasis);
+            end(HTML.Tag.EM);
+        }
+
+        @Override
+        public void visit(StrongEmphasis strongEmphasis) {
+            start(HTML.Tag.STRONG);
+            visitChildren(strongEmphasis);
+            end(HTML.Tag.STRONG);
+        }
+
+        @Override
+        public void visit(Link link) {
+            MutableAttributeSet attributes = new SimpleAttributeSet();
+            attributes.addAttribute(HTML.Attribute.HREF, link.getDestination());
+            if (link.getTitle() != null) {
+                attributes.addAttribute(HTML.Attribute.TITLE, link.getTitle());
+            }
+            start(HTML.Tag.A, attributes);
+            visitChildren(link);
+            end(HTML.Tag.A);
+        }
+
+        @Override
+        public void visit(Image image) {
+            StringBuilder alt = new StringBuilder();
+            image.accept(new AbstractVisitor() {
+                @Override
+                public void visit(Text text) {
+                    alt.append(text.getLiteral());
+                }
+            });
+            MutableAttributeSet attributes = new SimpleAttributeSet();
+            attributes.addAttribute(HTML.Attribute.SRC, image.getDestination());
+            attributes.addAttribute(HTML.Attribute.ALT, alt.toString());
+            if (image.getTitle() != null) {
+                attributes.addAttribute(HTML.Attribute.TITLE, image.getTitle());
+            }
+            simple(HTML.Tag.IMG, attributes);
+        }
+
+        @Override
+        public void visit(SoftLineBreak softLineBreak) {
+            simple(HTML.Tag.BR, new SimpleAttributeSet());
+        }
+
+        @Override
+        public void visit(HardLineBreak hardLineBreak) {
+            simple(HTML.Tag.BR, new SimpleAttributeSet());
+        }
+
+        @Override
+        public void visit(HtmlInline htmlInline) {
+            text(htmlInline.getLiteral());
+        }
+
+        private void codeBlock(String literal, String language) {
+            start(HTML.Tag.PRE);
+            MutableAttributeSet attributes = new SimpleAttributeSet();
+            if (!language.isEmpty()) {
+                attributes.addAttribute(HTML.Attribute.CLASS, "language-" + language);
+            }
+            start(HTML.Tag.CODE, attributes);
+            // The parser drops a newline after the start tag and one before the end tag.
+            int from = literal.startsWith("\n") ? 1 : 0;
+            int to = literal.length();
+            if (to - from > 1 && literal.charAt(to - 1) == '\n' && literal.charAt(to - 2) != '\n') {
+                to--;
+            }
+            text.append(literal, from, to);
+            end(HTML.Tag.CODE);
+            end(HTML.Tag.PRE);
+        }
+
+        /**
+         * Collapses whitespace the way the parser does in non-strict mode.
+         */
+        private void text(String literal) {
+            for (int i = 0; i < literal.length(); i++) {
+                char c = literal.charAt(i);
+                if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                    if (!ignoreSpace) {
+                        space = true;
+                    }
+                    continue;
+                }
+                if (text.length() == 0 && lastBreaksFlow) {
+                    space = false;
+                }
+                if (space) {
+                    text.append(' ');
+                    space = false;
+                }
+                text.append(c);
+                ignoreSpace = false;
+            }
+        }
+
+        private void start(HTML.Tag tag) {
+            start(tag, new SimpleAttributeSet());
+        }
+
+        /**
+         * The reader keeps and modifies the attribute sets it is given, so each tag gets a new one.
+         */
+        private void start(HTML.Tag tag, MutableAttributeSet attributes) {
+            flushText(tag, false);
+            reader.handleStartTag(tag, attributes, 0);
+        }
+
+        private void end(HTML.Tag tag) {
+            flushText(tag, false);
+            reader.handleEndTag(tag, 0);
+        }
+
+        private void simple(HTML.Tag tag, MutableAttributeSet attributes) {
+            flushText(tag, true);
+            reader.handleSimpleTag(tag, attributes, 0);
+        }
+
+        private void flushText(HTML.Tag tag, boolean empty) {
+            boolean breaksFlow = tag.breaksFlow();
+            if (breaksFlow) {
+                space = false;
+                ignoreSpace = true;
+            }
+            if (text.length() == 0 && (!space || lastBreaksFlow)) {
+                lastBreaksFlow = breaksFlow;
+                space = false;
+                return;
+            }
+            if (space) {
+                if (!ignoreSpace) {
+                    text.append(' ');
+                    if (!empty) {
+                        ignoreSpace = true;
+                    }
+                }
+                space = false;
+            }
+            char[] chars = new char[text.length()];
+            text.getChars(0, chars.length, chars, 0);
+            text.setLength(0);
+            reader.handleText(chars, 0);
+            lastBreaksFlow = breaksFlow;
+        }
+    }
+}
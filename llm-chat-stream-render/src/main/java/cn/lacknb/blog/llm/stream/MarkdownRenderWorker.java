@@ -0,0 +1,98 @@
+package cn.lacknb.blog.llm.stream;
+
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+import javax.swing.SwingUtilities;
+import javax.swing.text.html.HTMLDocument;
+import java.util.concurrent.ExecutorService;
+import java.util.function.BiConsumer;
+
+/**
+ * Renders markdown for streaming blocks off the EDT, one job at a time in submission order. A tail
+ * render superseded by a newer one for the same block is skipped; frozen segments never are.
+ */
+final class MarkdownRenderWorker {
+    private static final ExecutorService EXECUTOR =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("LLM Markdown Render", 1);
+
+    private final MarkdownDocumentRenderer renderer;
+
+    MarkdownRenderWorker(MarkdownDocumentRenderer renderer) {
+        this.renderer = renderer;
+    }
+
+    /**
+     * Called on the EDT. {@code apply} gets null for a frozen document that was not requested and
+     * for a stale tail.
+     */
+    void render(Generation generation, String frozenMarkdown, String tailMarkdown,
+                BiConsumer<HTMLDocument, HTMLDocument> apply) {
+        if (generation.cancelled) {
+            return;
+        }
+        int requested = ++generation.latest;
+        EXECUTOR.execute(() -> {
+            if (generation.cancelled) {
+                return;
+            }
+            HTMLDocument frozen = frozenMarkdown == null ? null : renderer.render(frozenMarkdown);
+            if (frozen != null) {
+                renderer.remember(frozenMarkdown, frozen);
+            }
+            // The old tail still holds the frozen text, so this tail must replace it.
+            HTMLDocument tail = frozen != null || generation.isLatest(requested)
+                    ? renderer.render(tailMarkdown)
+                    : null;
+            if (tail != null) {
+                if (generation.completed) {
+                    renderer.remember(tailMarkdown, tail);
+                } else {
+                    generation.lastTail = tailMarkdown;
+                    generation.lastTailDocument = tail;
+                }
+            }
+            if (frozen == null && tail == null) {
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (generation.cancelled || frozen == null && !generation.isLatest(requested)) {
+                    return;
+                }
+                apply.accept(frozen, tail);
+            });
+        });
+    }
+
+    /**
+     * Called on the EDT once the block's markdown is final.
+     */
+    void complete(Generation generation) {
+        EXECUTOR.execute(() -> {
+            generation.completed = true;
+            if (generation.lastTailDocument != null) {
+                renderer.remember(generation.lastTail, generation.lastTailDocument);
+                generation.lastTail = null;
+                generation.lastTailDocument = null;
+            }
+        });
+    }
+
+    void cancel(Generation generation) {
+        generation.cancelled = true;
+    }
+
+    /**
+     * Per-block state. {@code latest} and {@code cancelled} are set on the EDT, the rest by the worker.
+     */
+    static final class Generation {
+        private volatile int latest;
+        private volatile boolean cancelled;
+        private boolean completed;
+        private String lastTail;
+        private HTMLDocument lastTailDocument;
+
+        private boolean isLatest(int requested) {
+            return latest == requested;
+        }
+    }
+}
@@ -5,6 +5,14 @@ import org.commonmark.parser.Parser;
 import org.commonmark.renderer.html.HtmlRenderer;
 
 public class MarkdownRenderer {
+    static final String STYLE = "body{text-align:left;margin:0;padding:0;line-height:1.45;word-break:break-word;}" +
+            "p{margin:0 0 0.6em 0;}" +
+            "ul,ol{margin:0.2em 0 0.6em 1.2em;padding:0;text-align:left;}" +
+            "li{margin:0.1em 0;padding:0;}" +
+            "code{font-family:monospace;}" +
+            "pre{margin:0.4em 0;white-space:pre-wrap;}" +
+            "blockquote{margin:0.4em 0;padding:0 0 0 0.8em;border-left:3px solid #CCCCCC;}";
+
     private final Parser parser = Parser.builder().build();
     private final HtmlRenderer renderer = HtmlRenderer.builder()
             .softbreak("<br/>")
@@ -12,20 +20,15 @@ public class MarkdownRenderer {
             .build();
 
     public String toHtml(String markdown) {
+        return "<html><head><style>" + STYLE + "</style></head><body>" + renderBody(markdown) + "</body></html>";
+    }
+
+    /**
+     * The HTML body of {@code markdown} as {@link #toHtml} renders it, without the page around it.
+     */
+    String renderBody(String markdown) {
         Node node = parser.parse(markdown == null ? "" : markdown);
-        String body = renderer.render(node);
-        body = normalizeListParagraphs(body);
-        return "<html><head>" +
-                "<style>" +
-                "body{text-align:left;margin:0;padding:0;line-height:1.45;word-break:break-word;}" +
-                "p{margin:0 0 0.6em 0;}" +
-                "ul,ol{margin:0.2em 0 0.6em 1.2em;padding:0;text-align:left;}" +
-                "li{margin:0.1em 0;padding:0;}" +
-                "code{font-family:monospace;}" +
-                "pre{margin:0.4em 0;white-space:pre-wrap;}" +
-                "blockquote{margin:0.4em 0;padding:0 0 0 0.8em;border-left:3px solid #CCCCCC;}" +
-                "</style>" +
-                "</head><body>" + body + "</body></html>";
+        return normalizeListParagraphs(renderer.render(node));
     }
 
     private String normalizeListParagraphs(String html) {
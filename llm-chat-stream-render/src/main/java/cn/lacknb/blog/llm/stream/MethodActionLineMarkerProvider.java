@@ -11,6 +11,9 @@ import com.intellij.openapi.actionSystem.DefaultActionGroup;
 import com.intellij.openapi.actionSystem.DataContext;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.popup.JBPopupFactory;
+import com.intellij.openapi.ui.popup.JBPopupListener;
+import com.intellij.openapi.ui.popup.LightweightWindowEvent;
+import com.intellij.openapi.ui.popup.ListPopup;
 import com.intellij.openapi.editor.markup.GutterIconRenderer;
 import com.intellij.openapi.project.DumbAware;
 import com.intellij.psi.PsiElement;
@@ -103,31 +106,81 @@ public class MethodActionLineMarkerProvider extends LineMarkerProviderDescriptor
         public void navigate(MouseEvent e, PsiElement elt) {
             Project project = method.getProject();
             DataContext context = DataManager.getInstance().getDataContext(e.getComponent());
+            SpeculativeRequest speculative = SpeculativeRequest.isEnabled()
+                    ? SpeculativeRequest.start(project, buildPrompt(MethodAction.mostLikely().prefix, method))
+                    : null;
             DefaultActionGroup group = new DefaultActionGroup();
-            group.add(new AnAction("解释代码", "Explain this method", AllIcons.Actions.Help) {
-                @Override
-                public void actionPerformed(@NotNull AnActionEvent event) {
-                    String prompt = buildPrompt("解释下面的方法：", method);
-                    LLMChatToolWindow.showAndSubmit(project, prompt);
-                }
-            });
-            group.add(new AnAction("优化代码", "Optimize this method", AllIcons.Actions.RefactoringBulb) {
-                @Override
-                public void actionPerformed(@NotNull AnActionEvent event) {
-                    String prompt = buildPrompt("优化下面的方法，并说明改动：", method);
-                    LLMChatToolWindow.showAndSubmit(project, prompt);
-                }
-            });
+            for (MethodAction action : MethodAction.values()) {
+                group.add(new AnAction(action.text, action.description, action.icon) {
+                    @Override
+                    public void actionPerformed(@NotNull AnActionEvent event) {
+                        MethodActionStats.recordClick(action.id);
+                        String prompt = buildPrompt(action.prefix, method);
+                        if (speculative != null && speculative.claim(prompt)) {
+                            LLMChatToolWindow.showAndAdopt(project, speculative);
+                            return;
+                        }
+                        if (speculative != null) {
+                            speculative.cancel();
+                        }
+                        LLMChatToolWindow.showAndSubmit(project, prompt);
+                    }
+                });
+            }
 
-            JBPopupFactory.getInstance()
+            ListPopup popup = JBPopupFactory.getInstance()
                     .createActionGroupPopup(
                             "AI Actions",
                             group,
                             context,
                             JBPopupFactory.ActionSelectionAid.SPEEDSEARCH,
                             true
-                    )
-                    .show(new RelativePoint(e));
+                    );
+            if (speculative != null) {
+                popup.addListener(new JBPopupListener() {
+                    @Override
+                    public void onClosed(@NotNull LightweightWindowEvent event) {
+                        if (event.isOk()) {
+                            speculative.cancelIfUnclaimedLater();
+                        } else {
+                            speculative.cancel();
+                        }
+                    }
+                });
+            }
+            popup.show(new RelativePoint(e));
+        }
+    }
+
+    private enum MethodAction {
+        EXPLAIN("explain", "解释代码", "Explain this method", AllIcons.Actions.Help, "解释下面的方法："),
+        OPTIMIZE("optimize", "优化代码", "Optimize this method", AllIcons.Actions.RefactoringBulb, "优化下面的方法，并说明改动：");
+
+        private final String id;
+        private final String text;
+        private final String description;
+        private final javax.swing.Icon icon;
+        private final String prefix;
+
+        MethodAction(String id, String text, String description, javax.swing.Icon icon, String prefix) {
+            this.id = id;
+            this.text = text;
+            this.description = description;
+            this.icon = icon;
+            this.prefix = prefix;
+        }
+
+        private static MethodAction mostLikely() {
+            MethodAction best = EXPLAIN;
+            int bestClicks = -1;
+            for (MethodAction action : values()) {
+                int clicks = MethodActionStats.getClicks(action.id);
+                if (clicks > bestClicks) {
+                    best = action;
+                    bestClicks = clicks;
+                }
+            }
+            return best;
         }
     }
 
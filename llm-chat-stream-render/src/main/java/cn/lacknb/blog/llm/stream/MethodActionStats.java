@@ -0,0 +1,23 @@
+package cn.lacknb.blog.llm.stream;
+
+import com.intellij.ide.util.PropertiesComponent;
+
+/**
+ * Per-user click counts of the method popup actions, used to pick which request to prefetch.
+ */
+final class MethodActionStats {
+    private static final String KEY_PREFIX = "llm.stream.method.action.clicks.";
+
+    private MethodActionStats() {
+    }
+
+    static void recordClick(String actionId) {
+        PropertiesComponent properties = PropertiesComponent.getInstance();
+        String key = KEY_PREFIX + actionId;
+        properties.setValue(key, properties.getInt(key, 0) + 1, 0);
+    }
+
+    static int getClicks(String actionId) {
+        return PropertiesComponent.getInstance().getInt(KEY_PREFIX + actionId, 0);
+    }
+}
@@ -0,0 +1,71 @@
+package cn.lacknb.blog.llm.stream;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Latency counters per model tier, used to judge whether the fast-first cascade pays off.
+ */
+final class ModelTierStats {
+    private final Map<OpenAIChatService.ModelTier, Tier> tiers = new EnumMap<>(OpenAIChatService.ModelTier.class);
+
+    ModelTierStats() {
+        for (OpenAIChatService.ModelTier tier : OpenAIChatService.ModelTier.values()) {
+            tiers.put(tier, new Tier());
+        }
+    }
+
+    synchronized void recordFirstToken(OpenAIChatService.ModelTier tier, long millis) {
+        Tier stats = tiers.get(tier);
+        stats.firstTokenCount++;
+        stats.firstTokenTotalMs += millis;
+    }
+
+    synchronized void recordCompletion(OpenAIChatService.ModelTier tier, long millis) {
+        Tier stats = tiers.get(tier);
+        stats.completed++;
+        stats.totalMs += millis;
+    }
+
+    synchronized void recordEscalation(boolean automatic) {
+        Tier stats = tiers.get(OpenAIChatService.ModelTier.FAST);
+        if (automatic) {
+            stats.autoEscalations++;
+        } else {
+            stats.manualEscalations++;
+        }
+    }
+
+    synchronized String summary(OpenAIChatService service) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<OpenAIChatService.ModelTier, Tier> entry : tiers.entrySet()) {
+            OpenAIChatService.ModelTier tier = entry.getKey();
+            Tier stats = entry.getValue();
+            sb.append(tier.name().toLowerCase(Locale.ROOT))
+                    .append(" (").append(service.getModel(tier)).append("): ")
+                    .append(stats.completed).append(" completed, first token ")
+                    .append(average(stats.firstTokenTotalMs, stats.firstTokenCount)).append(" ms avg, total ")
+                    .append(average(stats.totalMs, stats.completed)).append(" ms avg");
+            if (tier == OpenAIChatService.ModelTier.FAST) {
+                sb.append(", escalated ").append(stats.autoEscalations).append(" auto / ")
+                        .append(stats.manualEscalations).append(" manual");
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static long average(long total, int count) {
+        return count == 0 ? 0 : total / count;
+    }
+
+    private static final class Tier {
+        private int firstTokenCount;
+        private long firstTokenTotalMs;
+        private int completed;
+        private long totalMs;
+        private int autoEscalations;
+        private int manualEscalations;
+    }
+}
@@ -1,9 +1,8 @@
 package cn.lacknb.blog.llm.stream;
 
 import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.intellij.openapi.Disposable;
 
 import java.io.IOException;
 import java.net.URI;
@@ -13,8 +12,12 @@ import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -22,21 +25,36 @@ import java.util.concurrent.atomic.AtomicReference;
  * @author gitsilence
  */
 @EncryptStrings
-public class OpenAIChatService {
+public class OpenAIChatService implements Disposable {
     private static final String DEFAULT_BASE_URL = "https://api.openai.com/v1";
     private static final String DEFAULT_MODEL = "gpt-4o-mini";
 
     private final HttpClient httpClient;
+    private final ExecutorService httpExecutor;
+    private final Set<StreamSession> activeSessions = ConcurrentHashMap.newKeySet();
+    private volatile boolean disposed;
     private final String baseUrl;
     private final String model;
+    private final String fastModel;
     private final String apiKey;
 
     public OpenAIChatService(String baseUrl, String model, String apiKey) {
+        this(baseUrl, model, null, apiKey);
+    }
+
+    public OpenAIChatService(String baseUrl, String model, String fastModel, String apiKey) {
         this.baseUrl = baseUrl == null || baseUrl.isBlank() ? DEFAULT_BASE_URL : baseUrl;
         this.model = model == null || model.isBlank() ? DEFAULT_MODEL : model;
+        this.fastModel = fastModel == null || fastModel.isBlank() || fastModel.equals(this.model) ? null : fastModel;
         this.apiKey = apiKey == null || apiKey.isBlank() ? getApiKey() : apiKey;
+        this.httpExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "openai-http-thread");
+            thread.setDaemon(true);
+            return thread;
+        });
         this.httpClient = HttpClient.newBuilder()
                 .connectTimeout(Duration.ofSeconds(30))
+                .executor(httpExecutor)
                 .build();
     }
 
@@ -44,7 +62,34 @@ public class OpenAIChatService {
         return System.getenv("OPENAI_API_KEY");
     }
 
+    /**
+     * Cascade mode is on when a fast model distinct from the main model is configured.
+     */
+    public boolean isCascadeEnabled() {
+        return fastModel != null;
+    }
+
+    public ModelTier getInitialTier() {
+        return isCascadeEnabled() ? ModelTier.FAST : ModelTier.STRONG;
+    }
+
+    public String getModel(ModelTier tier) {
+        return tier == ModelTier.FAST && fastModel != null ? fastModel : model;
+    }
+
     public StreamSession streamChatCompletion(List<ChatMessage> messages, StreamHandler handler) {
+        return streamChatCompletion(ModelTier.STRONG, messages, handler);
+    }
+
+    public StreamSession streamChatCompletion(ModelTier tier, List<ChatMessage> messages, StreamHandler handler) {
+        return streamChatCompletion(tier, messages, new ResponseBuffer(), handler);
+    }
+
+    public StreamSession streamChatCompletion(ModelTier tier, List<ChatMessage> messages, ResponseBuffer answer,
+                                              StreamHandler handler) {
+        if (disposed) {
+            return StreamSession.noop();
+        }
         if (apiKey == null || apiKey.isBlank()) {
             handler.onError(new IllegalStateException(
                     "Missing API key. Set OPENAI_API_KEY or rebuild the plugin with an embedded config."
@@ -53,7 +98,7 @@ public class OpenAIChatService {
         }
 
         JsonObject payload = new JsonObject();
-        payload.addProperty("model", model);
+        payload.addProperty("model", getModel(tier));
         payload.addProperty("stream", true);
         payload.addProperty("temperature", 0.2);
 
@@ -80,6 +125,11 @@ public class OpenAIChatService {
                 request,
                 HttpResponse.BodyHandlers.ofLines()
         );
+        StreamSession session = new StreamSession(cancelled, future, streamRef);
+        activeSessions.add(session);
+        if (disposed) {
+            session.cancel();
+        }
 
         new Thread(() -> {
             try {
@@ -95,7 +145,6 @@ public class OpenAIChatService {
                     return;
                 }
 
-                StringBuilder full = new StringBuilder();
                 java.util.stream.Stream<String> bodyStream = response.body();
                 streamRef.set(bodyStream);
                 Iterator<String> iterator = bodyStream.iterator();
@@ -103,42 +152,34 @@ public class OpenAIChatService {
                     if (cancelled.get()) {
                         return;
                     }
-                    String line = iterator.next();
-                    if (!line.startsWith("data:")) {
-                        continue;
-                    }
-                    String data = line.substring(5).trim();
-                    if (data.isEmpty()) {
+                    String data = SseChunkDecoder.data(iterator.next());
+                    if (data == null) {
                         continue;
                     }
-                    if ("[DONE]".equals(data)) {
+                    if (SseChunkDecoder.DONE.equals(data)) {
                         if (!cancelled.get()) {
-                            handler.onComplete(full.toString());
+                            handler.onComplete(answer);
                         }
                         return;
                     }
 
-                    JsonElement parsed = JsonParser.parseString(data);
-                    JsonObject root = parsed.getAsJsonObject();
-                    JsonArray choices = root.getAsJsonArray("choices");
-                    if (choices == null || choices.size() == 0) {
+                    SseChunkDecoder.Chunk decoded = SseChunkDecoder.decode(data);
+                    if (decoded == null) {
                         continue;
                     }
-                    JsonObject choice = choices.get(0).getAsJsonObject();
-                    JsonObject delta = choice.getAsJsonObject("delta");
-                    if (delta == null || !delta.has("content")) {
-                        continue;
+                    if (decoded.truncated && !cancelled.get()) {
+                        handler.onTruncated();
                     }
-                    String chunk = delta.get("content").getAsString();
-                    if (!chunk.isEmpty()) {
-                        full.append(chunk);
+                    String chunk = decoded.content;
+                    if (chunk != null && !chunk.isEmpty()) {
+                        answer.append(chunk);
                         if (!cancelled.get()) {
                             handler.onDelta(chunk);
                         }
                     }
                 }
                 if (!cancelled.get()) {
-                    handler.onComplete(full.toString());
+                    handler.onComplete(answer);
                 }
             } catch (CancellationException e) {
                 if (!cancelled.get()) {
@@ -148,18 +189,45 @@ public class OpenAIChatService {
                 if (!cancelled.get()) {
                     handler.onError(e);
                 }
+            } finally {
+                activeSessions.remove(session);
             }
         }, "openai-stream-thread").start();
 
-        return new StreamSession(cancelled, future, streamRef);
+        return session;
+    }
+
+    int getActiveStreamCount() {
+        return activeSessions.size();
+    }
+
+    @Override
+    public void dispose() {
+        disposed = true;
+        for (StreamSession session : activeSessions) {
+            session.cancel();
+        }
+        activeSessions.clear();
+        httpExecutor.shutdownNow();
     }
 
     public interface StreamHandler {
         void onDelta(String text);
 
-        void onComplete(String fullText);
+        void onComplete(ResponseBuffer answer);
 
         void onError(Throwable error);
+
+        /**
+         * Called before {@link #onComplete(ResponseBuffer)} when the model stopped at its token limit.
+         */
+        default void onTruncated() {
+        }
+    }
+
+    public enum ModelTier {
+        FAST,
+        STRONG
     }
 
     public static final class StreamSession {
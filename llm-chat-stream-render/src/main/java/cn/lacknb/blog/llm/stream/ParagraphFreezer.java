@@ -0,0 +1,204 @@
+package cn.lacknb.blog.llm.stream;
+
+/**
+ * Finds where a streaming text block can be cut so that everything before the cut renders the same
+ * on its own. Nothing is cut once the block may contain a reference link.
+ */
+final class ParagraphFreezer {
+    private static final int MAX_ORDERED_MARKER_DIGITS = 9;
+    private static final int MAX_FENCE_INDENT = 3;
+    private static final int MIN_FENCE_LENGTH = 3;
+    private static final int UNDECIDED = -2;
+
+    private int scanPos;
+    private boolean inLine;
+    private boolean previousBlank;
+    private boolean seenContent;
+    private char fenceChar;
+    private int fenceLength;
+    private int codeSpanRun;
+    private boolean held;
+
+    /**
+     * Returns the latest offset in {@code text} before which the text can be frozen, or -1. The
+     * caller must drop the frozen prefix and report it through {@link #onFrozen(int)}.
+     */
+    int findSplit(CharSequence text) {
+        int len = text.length();
+        int split = -1;
+        while (scanPos < len && !held) {
+            if (inLine) {
+                int lineEnd = scanLine(text);
+                if (lineEnd < 0) {
+                    break;
+                }
+                inLine = false;
+                previousBlank = false;
+                scanPos = lineEnd + 1;
+                continue;
+            }
+            int first = skipIndent(text, scanPos);
+            if (first >= len) {
+                break;
+            }
+            if (text.charAt(first) == '\n') {
+                previousBlank = true;
+                codeSpanRun = 0;
+                scanPos = first + 1;
+                continue;
+            }
+            int fence = first - scanPos <= MAX_FENCE_INDENT ? fenceLength(text, first) : 0;
+            if (fence == UNDECIDED) {
+                break;
+            }
+            if (fenceChar != 0) {
+                if (fence >= fenceLength && text.charAt(first) == fenceChar) {
+                    int closing = isBlankToLineEnd(text, first + fence);
+                    if (closing == UNDECIDED) {
+                        break;
+                    }
+                    if (closing > 0) {
+                        fenceChar = 0;
+                    }
+                }
+                inLine = true;
+                scanPos = first;
+                continue;
+            }
+            if (previousBlank && seenContent) {
+                int safe = first > scanPos ? 0 : isSafeLineStart(text, first);
+                if (safe == UNDECIDED) {
+                    break;
+                }
+                if (safe > 0) {
+                    split = scanPos;
+                }
+            }
+            if (fence > 0) {
+                fenceChar = text.charAt(first);
+                fenceLength = fence;
+            }
+            seenContent = true;
+            inLine = true;
+            scanPos = first;
+        }
+        return split;
+    }
+
+    void onFrozen(int frozenLength) {
+        scanPos -= frozenLength;
+    }
+
+    /**
+     * Returns the offset of the line's newline, or -1 if the line is not complete yet.
+     */
+    private int scanLine(CharSequence text) {
+        int len = text.length();
+        for (int i = scanPos; i < len; i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                return i;
+            }
+            if (fenceChar != 0) {
+                continue;
+            }
+            if (c == '`') {
+                int run = runLength(text, i, '`');
+                if (i + run >= len) {
+                    scanPos = i;
+                    return -1;
+                }
+                if (codeSpanRun == 0) {
+                    codeSpanRun = run;
+                } else if (codeSpanRun == run) {
+                    codeSpanRun = 0;
+                }
+                i += run - 1;
+            } else if (c == ']' && codeSpanRun == 0) {
+                if (i + 1 >= len) {
+                    scanPos = i;
+                    return -1;
+                }
+                if (text.charAt(i + 1) != '(') {
+                    held = true;
+                }
+            }
+        }
+        scanPos = len;
+        return -1;
+    }
+
+    private static int fenceLength(CharSequence text, int index) {
+        char c = text.charAt(index);
+        if (c != '`' && c != '~') {
+            return 0;
+        }
+        int run = runLength(text, index, c);
+        if (index + run >= text.length()) {
+            return UNDECIDED;
+        }
+        return run >= MIN_FENCE_LENGTH ? run : 0;
+    }
+
+    private static int isBlankToLineEnd(CharSequence text, int from) {
+        for (int i = from; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                return 1;
+            }
+            if (c != ' ' && c != '\t' && c != '\r') {
+                return 0;
+            }
+        }
+        return UNDECIDED;
+    }
+
+    private static int runLength(CharSequence text, int from, char c) {
+        int i = from;
+        while (i < text.length() && text.charAt(i) == c) {
+            i++;
+        }
+        return i - from;
+    }
+
+    private static int isSafeLineStart(CharSequence text, int index) {
+        int len = text.length();
+        char c = text.charAt(index);
+        if (c == '-' || c == '*' || c == '+') {
+            if (index + 1 >= len) {
+                return UNDECIDED;
+            }
+            return isMarkerGap(text.charAt(index + 1)) ? 0 : 1;
+        }
+        if (c >= '0' && c <= '9') {
+            int i = index;
+            while (i < len && i - index < MAX_ORDERED_MARKER_DIGITS && Character.isDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i >= len) {
+                return UNDECIDED;
+            }
+            char delimiter = text.charAt(i);
+            if (delimiter != '.' && delimiter != ')') {
+                return 1;
+            }
+            if (i + 1 >= len) {
+                return UNDECIDED;
+            }
+            return isMarkerGap(text.charAt(i + 1)) ? 0 : 1;
+        }
+        return 1;
+    }
+
+    private static boolean isMarkerGap(char c) {
+        return c == ' ' || c == '\t' || c == '\n';
+    }
+
+    private static int skipIndent(CharSequence text, int from) {
+        int i = from;
+        while (i < text.length() && (text.charAt(i) == ' ' || text.charAt(i) == '\t' || text.charAt(i) == '\r')) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,31 @@
+package cn.lacknb.blog.llm.stream;
+
+import java.awt.Dimension;
+import java.awt.Font;
+import java.util.Objects;
+
+/**
+ * Remembers the preferred size a width-tracking text component measured for one combination of
+ * content version, width and font. Layout passes that ask again without any of the three changing
+ * get the stored size instead of a full text relayout.
+ */
+final class PreferredSizeCache {
+    private int version = -1;
+    private int width = -1;
+    private Font font;
+    private Dimension size;
+
+    Dimension get(int version, int width, Font font) {
+        if (size != null && this.version == version && this.width == width && Objects.equals(font, this.font)) {
+            return new Dimension(size);
+        }
+        return null;
+    }
+
+    void put(int version, int width, Font font, Dimension size) {
+        this.version = version;
+        this.width = width;
+        this.font = font;
+        this.size = new Dimension(size);
+    }
+}
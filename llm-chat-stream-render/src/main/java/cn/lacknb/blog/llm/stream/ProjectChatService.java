@@ -0,0 +1,42 @@
+package cn.lacknb.blog.llm.stream;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+
+/**
+ * One HTTP client per project, disposed with it.
+ */
+@Service
+public final class ProjectChatService implements Disposable {
+    private final OpenAIChatService chatService;
+
+    public ProjectChatService(Project project) {
+        this(createChatService(LLMConfigLoader.load(project)));
+    }
+
+    /**
+     * Takes ownership of {@code chatService}; tests use it to point the project at another server.
+     */
+    ProjectChatService(OpenAIChatService chatService) {
+        this.chatService = chatService;
+        Disposer.register(this, chatService);
+    }
+
+    private static OpenAIChatService createChatService(LLMConfig config) {
+        String baseUrl = config != null ? config.getBaseUrl() : System.getenv("OPENAI_BASE_URL");
+        String model = config != null ? config.getModel() : System.getenv("OPENAI_MODEL");
+        String fastModel = config != null ? config.getFastModel() : System.getenv("OPENAI_FAST_MODEL");
+        String apiKey = config != null ? config.getApiKey() : System.getenv("OPENAI_API_KEY");
+        return new OpenAIChatService(baseUrl, model, fastModel, apiKey);
+    }
+
+    static OpenAIChatService getInstance(Project project) {
+        return project.getService(ProjectChatService.class).chatService;
+    }
+
+    @Override
+    public void dispose() {
+    }
+}
@@ -0,0 +1,151 @@
+package cn.lacknb.blog.llm.stream;
+
+import com.intellij.ide.ui.LafManager;
+import com.intellij.ide.ui.LafManagerListener;
+
+import javax.swing.text.AttributeSet;
+import javax.swing.text.DefaultStyledDocument.ElementSpec;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Element structure of rendered markdown, so rebuilt panels skip rendering. Bounded by estimated
+ * heap and cleared on a look and feel change.
+ */
+final class RenderedMarkdownCache {
+    private static final long MAX_CACHED_BYTES = 4 * 1024 * 1024;
+    private static final int SPEC_BYTES = 40;
+    private static final int ARRAY_HEADER_BYTES = 16;
+    private static final int ATTRIBUTE_SET_BYTES = 64;
+    private static final int ATTRIBUTE_BYTES = 48;
+    private static final Map<Key, Entry> CACHE = new LinkedHashMap<>(16, 0.75f, true);
+    private static long cachedBytes;
+    private static int theme;
+    private static long hits;
+    private static long misses;
+
+    private RenderedMarkdownCache() {
+    }
+
+    static synchronized int getTheme() {
+        return theme;
+    }
+
+    static ElementSpec[] get(String markdown, int theme) {
+        synchronized (CACHE) {
+            Entry entry = CACHE.get(new Key(markdown, theme));
+            if (entry != null) {
+                hits++;
+                return entry.specs;
+            }
+            misses++;
+            return null;
+        }
+    }
+
+    static void put(String markdown, int theme, ElementSpec[] specs) {
+        long bytes = retainedBytes(markdown, specs);
+        if (bytes > MAX_CACHED_BYTES / 4) {
+            return;
+        }
+        synchronized (CACHE) {
+            Entry previous = CACHE.put(new Key(markdown, theme), new Entry(specs, bytes));
+            cachedBytes += bytes - (previous != null ? previous.bytes : 0);
+            Iterator<Entry> entries = CACHE.values().iterator();
+            while (cachedBytes > MAX_CACHED_BYTES && entries.hasNext()) {
+                cachedBytes -= entries.next().bytes;
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Shared arrays and attribute sets are counted for each spec.
+     */
+    static long retainedBytes(String markdown, ElementSpec[] specs) {
+        long bytes = ARRAY_HEADER_BYTES + 2L * markdown.length()
+                + ARRAY_HEADER_BYTES + 4L * specs.length;
+        for (ElementSpec spec : specs) {
+            bytes += SPEC_BYTES;
+            char[] text = spec.getArray();
+            if (text != null) {
+                bytes += ARRAY_HEADER_BYTES + 2L * text.length;
+            }
+            AttributeSet attributes = spec.getAttributes();
+            if (attributes != null) {
+                bytes += ATTRIBUTE_SET_BYTES + (long) ATTRIBUTE_BYTES * attributes.getAttributeCount();
+            }
+        }
+        return bytes;
+    }
+
+    static void invalidate() {
+        synchronized (RenderedMarkdownCache.class) {
+            theme++;
+        }
+        synchronized (CACHE) {
+            CACHE.clear();
+            cachedBytes = 0;
+        }
+    }
+
+    static String describe() {
+        synchronized (CACHE) {
+            long lookups = hits + misses;
+            String hitRate = lookups == 0 ? "-" : Math.round(hits * 100.0 / lookups) + "%";
+            return "markdown cache " + CACHE.size() + " entries, " + cachedBytes / 1024 + " K, "
+                    + hitRate + " hit rate (" + hits + "/" + lookups + ")";
+        }
+    }
+
+    /**
+     * Registered in plugin.xml.
+     */
+    public static final class ThemeListener implements LafManagerListener {
+        @Override
+        public void lookAndFeelChanged(LafManager source) {
+            invalidate();
+        }
+    }
+
+    private static final class Entry {
+        private final ElementSpec[] specs;
+        private final long bytes;
+
+        Entry(ElementSpec[] specs, long bytes) {
+            this.specs = specs;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class Key {
+        private final String markdown;
+        private final int theme;
+        private final int hash;
+
+        Key(String markdown, int theme) {
+            this.markdown = markdown;
+            this.theme = theme;
+            this.hash = Objects.hash(markdown, theme);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && theme == other.theme && markdown.equals(other.markdown);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package cn.lacknb.blog.llm.stream;
+
+import java.util.Arrays;
+
+/**
+ * The text of one streamed response, shared by the chat history and the message row; the panel
+ * still copies what it renders. Full segments are sealed into compact strings.
+ * <p>
+ * Appends lock, which is uncontended: only the stream thread appends while streaming. Readers do
+ * not lock, as the volatile length is written after the chars it covers.
+ */
+public final class ResponseBuffer implements CharSequence {
+    private static final int SEGMENT_CHARS = 4096;
+    private static final int ARRAY_HEADER_BYTES = 16;
+    private static final int OBJECT_HEADER_BYTES = 16;
+    private static final int REFERENCE_BYTES = 4;
+
+    private volatile String[] sealed = new String[4];
+    private volatile int sealedCount;
+    private volatile char[] open = new char[SEGMENT_CHARS];
+    private volatile int length;
+    private boolean closed;
+
+    public synchronized void append(CharSequence text) {
+        if (closed) {
+            return;
+        }
+        int end = length;
+        for (int i = 0; i < text.length(); ) {
+            int offset = end % SEGMENT_CHARS;
+            int count = Math.min(SEGMENT_CHARS - offset, text.length() - i);
+            char[] segment = open;
+            for (int k = 0; k < count; k++) {
+                segment[offset + k] = text.charAt(i + k);
+            }
+            i += count;
+            end += count;
+            if (end % SEGMENT_CHARS == 0) {
+                sealSegment(new String(segment));
+                open = new char[SEGMENT_CHARS];
+            }
+        }
+        length = end;
+    }
+
+    /**
+     * Later appends are ignored.
+     */
+    public synchronized void seal() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        int used = length % SEGMENT_CHARS;
+        if (used > 0) {
+            sealSegment(new String(open, 0, used));
+        }
+        open = null;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        int end = length;
+        if (index < 0 || index >= end) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + end);
+        }
+        int segment = index / SEGMENT_CHARS;
+        // Read before the sealed count: a segment is sealed before the open one is replaced.
+        char[] current = open;
+        if (segment < sealedCount) {
+            return sealed[segment].charAt(index % SEGMENT_CHARS);
+        }
+        return current[index % SEGMENT_CHARS];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || start > end || end > length) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+        }
+        return new Slice(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return copy(0, length);
+    }
+
+    /**
+     * Approximate heap retained by the stored text.
+     */
+    long getRetainedBytes() {
+        long bytes = OBJECT_HEADER_BYTES + ARRAY_HEADER_BYTES + (long) REFERENCE_BYTES * sealed.length;
+        int count = sealedCount;
+        String[] segments = sealed;
+        for (int i = 0; i < count; i++) {
+            String segment = segments[i];
+            boolean latin1 = segment.chars().allMatch(c -> c <= 0xFF);
+            bytes += 2L * OBJECT_HEADER_BYTES + ARRAY_HEADER_BYTES + (latin1 ? 1L : 2L) * segment.length();
+        }
+        char[] current = open;
+        if (current != null) {
+            bytes += ARRAY_HEADER_BYTES + 2L * current.length;
+        }
+        return bytes;
+    }
+
+    private void sealSegment(String segment) {
+        int count = sealedCount;
+        String[] segments = sealed;
+        if (count == segments.length) {
+            segments = Arrays.copyOf(segments, count * 2);
+        }
+        segments[count] = segment;
+        sealed = segments;
+        sealedCount = count + 1;
+    }
+
+    private String copy(int start, int end) {
+        char[] chars = new char[end - start];
+        int position = start;
+        while (position < end) {
+            int segment = position / SEGMENT_CHARS;
+            int offset = position % SEGMENT_CHARS;
+            int count = Math.min(SEGMENT_CHARS - offset, end - position);
+            char[] current = open;
+            if (segment < sealedCount) {
+                sealed[segment].getChars(offset, offset + count, chars, position - start);
+            } else {
+                System.arraycopy(current, offset, chars, position - start, count);
+            }
+            position += count;
+        }
+        return new String(chars);
+    }
+
+    private final class Slice implements CharSequence {
+        private final int start;
+        private final int end;
+
+        Slice(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= end - start) {
+                throw new IndexOutOfBoundsException("index " + index + ", length " + (end - start));
+            }
+            return ResponseBuffer.this.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            if (from < 0 || from > to || to > end - start) {
+                throw new IndexOutOfBoundsException("start " + from + ", end " + to + ", length " + (end - start));
+            }
+            return new Slice(start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            return copy(start, end);
+        }
+    }
+}
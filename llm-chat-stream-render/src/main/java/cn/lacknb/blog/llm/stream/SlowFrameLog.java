@@ -0,0 +1,162 @@
+package cn.lacknb.blog.llm.stream;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The last {@link #CAPACITY} frames that ran over budget or started late, with their slowest paths,
+ * to tell the chat window's freezes from the IDE's. EDT only.
+ */
+final class SlowFrameLog {
+    static final long BUDGET_NANOS = 16_000_000L;
+    private static final int CAPACITY = 32;
+    private static final int SECTIONS_PER_FRAME = 4;
+    private static final String OTHER_EDT_WORK = "other EDT work";
+
+    private final Frame[] slowFrames = new Frame[CAPACITY];
+    private int next;
+    private long frames;
+    private long slowCount;
+    private long stallCount;
+    private long maxStallNanos;
+
+    private boolean inFrame;
+    private int sectionCount;
+    private final String[] sectionPaths = new String[SECTIONS_PER_FRAME];
+    private final String[] sectionBlocks = new String[SECTIONS_PER_FRAME];
+    private final int[] sectionSizes = new int[SECTIONS_PER_FRAME];
+    private final long[] sectionNanos = new long[SECTIONS_PER_FRAME];
+
+    void beginFrame() {
+        inFrame = true;
+        sectionCount = 0;
+    }
+
+    /**
+     * Nested paths are recorded separately, so their time is also part of the enclosing one.
+     */
+    void record(String path, String blockType, int contentSize, long nanos) {
+        if (!inFrame) {
+            if (nanos > BUDGET_NANOS) {
+                slowCount++;
+                add(new Frame(nanos, new Section[]{new Section(path, blockType, contentSize, nanos)}));
+            }
+            return;
+        }
+        // Keep the slowest paths of the frame, replacing the fastest one kept so far.
+        int slot = sectionCount;
+        if (slot == SECTIONS_PER_FRAME) {
+            slot = 0;
+            for (int i = 1; i < SECTIONS_PER_FRAME; i++) {
+                if (sectionNanos[i] < sectionNanos[slot]) {
+                    slot = i;
+                }
+            }
+            if (sectionNanos[slot] >= nanos) {
+                return;
+            }
+        } else {
+            sectionCount++;
+        }
+        sectionPaths[slot] = path;
+        sectionBlocks[slot] = blockType;
+        sectionSizes[slot] = contentSize;
+        sectionNanos[slot] = nanos;
+    }
+
+    /**
+     * Ends a frame that ran for {@code nanos} and started {@code lateNanos} after it was due.
+     */
+    void endFrame(long nanos, long lateNanos) {
+        inFrame = false;
+        frames++;
+        if (lateNanos > BUDGET_NANOS) {
+            stallCount++;
+            maxStallNanos = Math.max(maxStallNanos, lateNanos);
+            add(new Frame(lateNanos, new Section[]{new Section(OTHER_EDT_WORK, "-", 0, lateNanos)}));
+        }
+        if (nanos <= BUDGET_NANOS) {
+            return;
+        }
+        slowCount++;
+        Section[] sections = new Section[sectionCount];
+        for (int i = 0; i < sectionCount; i++) {
+            sections[i] = new Section(sectionPaths[i], sectionBlocks[i], sectionSizes[i], sectionNanos[i]);
+        }
+        add(new Frame(nanos, sections));
+    }
+
+    String describe() {
+        StringBuilder report = new StringBuilder();
+        report.append(frames).append(" frames, ").append(slowCount).append(" over ")
+                .append(BUDGET_NANOS / 1_000_000L).append(" ms, ").append(stallCount)
+                .append(" delayed by other EDT work (max ").append(formatMillis(maxStallNanos)).append(")\n");
+        List<Frame> recent = new ArrayList<>(CAPACITY);
+        for (Frame frame : slowFrames) {
+            if (frame != null) {
+                recent.add(frame);
+            }
+        }
+        if (recent.isEmpty()) {
+            return report.append("No slow frames.").toString();
+        }
+        recent.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+        SimpleDateFormat time = new SimpleDateFormat("HH:mm:ss.SSS");
+        for (Frame frame : recent) {
+            report.append(time.format(new Date(frame.timeMillis))).append("  ")
+                    .append(formatMillis(frame.nanos)).append(':');
+            if (frame.sections.length == 0) {
+                report.append(" no timed path");
+            }
+            for (int i = 0; i < frame.sections.length; i++) {
+                Section section = frame.sections[i];
+                report.append(i == 0 ? " " : ", ").append(section.path);
+                if (!OTHER_EDT_WORK.equals(section.path)) {
+                    report.append(" [").append(section.blockType).append(", ")
+                            .append(section.contentSize).append("] ")
+                            .append(formatMillis(section.nanos));
+                }
+            }
+            report.append('\n');
+        }
+        return report.toString();
+    }
+
+    private void add(Frame frame) {
+        slowFrames[next] = frame;
+        next = (next + 1) % CAPACITY;
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format("%.1f ms", nanos / 1_000_000.0);
+    }
+
+    private static final class Frame {
+        private final long timeMillis = System.currentTimeMillis();
+        private final long nanos;
+        private final Section[] sections;
+
+        Frame(long nanos, Section[] sections) {
+            this.nanos = nanos;
+            this.sections = sections;
+            Arrays.sort(sections, (a, b) -> Long.compare(b.nanos, a.nanos));
+        }
+    }
+
+    private static final class Section {
+        private final String path;
+        private final String blockType;
+        private final int contentSize;
+        private final long nanos;
+
+        Section(String path, String blockType, int contentSize, long nanos) {
+            this.path = path;
+            this.blockType = blockType;
+            this.contentSize = contentSize;
+            this.nanos = nanos;
+        }
+    }
+}
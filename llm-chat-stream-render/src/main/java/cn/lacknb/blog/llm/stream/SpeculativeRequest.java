@@ -0,0 +1,178 @@
+package cn.lacknb.blog.llm.stream;
+
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.project.Project;
+
+import javax.swing.Timer;
+import java.util.Collections;
+
+/**
+ * A chat request started while the method action popup is still open, held back until the matching
+ * action is clicked.
+ */
+final class SpeculativeRequest implements OpenAIChatService.StreamHandler {
+    static final String ENABLED_PROPERTY = "llm.speculative.prefetch";
+    private static final String ENABLED_SETTING = "llm.stream.speculative.prefetch";
+    private static final int UNCLAIMED_TIMEOUT_MS = 2000;
+
+    private final String prompt;
+    private final OpenAIChatService.ModelTier tier;
+    private final ResponseBuffer response = new ResponseBuffer();
+    private int heldBack;
+    private OpenAIChatService.StreamSession session;
+    private OpenAIChatService.StreamHandler target;
+    private boolean completed;
+    private Throwable error;
+    private boolean truncated;
+    private boolean claimed;
+    private boolean cancelled;
+    private Timer cancelTimer;
+
+    private SpeculativeRequest(String prompt, OpenAIChatService.ModelTier tier) {
+        this.prompt = prompt;
+        this.tier = tier;
+    }
+
+    static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY) || PropertiesComponent.getInstance().getBoolean(ENABLED_SETTING, false);
+    }
+
+    static void setEnabled(boolean enabled) {
+        PropertiesComponent.getInstance().setValue(ENABLED_SETTING, enabled, false);
+    }
+
+    static SpeculativeRequest start(Project project, String prompt) {
+        OpenAIChatService chatService = ProjectChatService.getInstance(project);
+        SpeculativeRequest request = new SpeculativeRequest(prompt, chatService.getInitialTier());
+        request.setSession(chatService.streamChatCompletion(
+                request.tier,
+                Collections.singletonList(new ChatMessage("user", prompt)),
+                request.response,
+                request
+        ));
+        return request;
+    }
+
+    String getPrompt() {
+        return prompt;
+    }
+
+    OpenAIChatService.ModelTier getTier() {
+        return tier;
+    }
+
+    ResponseBuffer getResponse() {
+        return response;
+    }
+
+    synchronized OpenAIChatService.StreamSession getSession() {
+        return session;
+    }
+
+    private synchronized void setSession(OpenAIChatService.StreamSession session) {
+        this.session = session;
+        if (cancelled) {
+            session.cancel();
+        }
+    }
+
+    /**
+     * Fails if the prompt differs or the request was cancelled.
+     */
+    synchronized boolean claim(String clickedPrompt) {
+        if (claimed || cancelled || !prompt.equals(clickedPrompt)) {
+            return false;
+        }
+        claimed = true;
+        stopCancelTimer();
+        return true;
+    }
+
+    synchronized void attach(OpenAIChatService.StreamHandler handler) {
+        target = handler;
+        // The stream thread may have appended more than it has delivered.
+        if (heldBack > 0) {
+            handler.onDelta(response.subSequence(0, heldBack).toString());
+        }
+        if (truncated) {
+            handler.onTruncated();
+        }
+        if (completed) {
+            handler.onComplete(response);
+        } else if (error != null) {
+            handler.onError(error);
+        }
+    }
+
+    synchronized void cancel() {
+        if (claimed || cancelled) {
+            return;
+        }
+        cancelled = true;
+        stopCancelTimer();
+        if (session != null) {
+            session.cancel();
+        }
+    }
+
+    /**
+     * The popup closes before the chosen action runs.
+     */
+    synchronized void cancelIfUnclaimedLater() {
+        if (claimed || cancelled) {
+            return;
+        }
+        cancelTimer = new Timer(UNCLAIMED_TIMEOUT_MS, e -> cancel());
+        cancelTimer.setRepeats(false);
+        cancelTimer.start();
+    }
+
+    synchronized boolean isCancelTimerRunning() {
+        return cancelTimer != null && cancelTimer.isRunning();
+    }
+
+    private void stopCancelTimer() {
+        if (cancelTimer != null) {
+            cancelTimer.stop();
+            cancelTimer = null;
+        }
+    }
+
+    @Override
+    public synchronized void onDelta(String text) {
+        if (target != null) {
+            target.onDelta(text);
+            return;
+        }
+        if (!cancelled) {
+            heldBack += text.length();
+        }
+    }
+
+    @Override
+    public synchronized void onTruncated() {
+        if (target != null) {
+            target.onTruncated();
+            return;
+        }
+        truncated = true;
+    }
+
+    @Override
+    public synchronized void onComplete(ResponseBuffer answer) {
+        if (target != null) {
+            target.onComplete(answer);
+            return;
+        }
+        completed = true;
+    }
+
+    @Override
+    public synchronized void onError(Throwable error) {
+        if (target != null) {
+            target.onError(error);
+            return;
+        }
+        this.error = error;
+    }
+}
@@ -0,0 +1,60 @@
+package cn.lacknb.blog.llm.stream;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Decodes the server-sent event lines of a streamed chat completion, one line per call, as read by
+ * {@link OpenAIChatService}.
+ */
+final class SseChunkDecoder {
+    static final String DONE = "[DONE]";
+
+    private SseChunkDecoder() {
+    }
+
+    /**
+     * Returns null for lines other than a non-empty {@code data:} line.
+     */
+    static String data(String line) {
+        if (!line.startsWith("data:")) {
+            return null;
+        }
+        String data = line.substring(5).trim();
+        return data.isEmpty() ? null : data;
+    }
+
+    /**
+     * Decodes the payload of one chunk. Returns null when the chunk has no choices.
+     */
+    static Chunk decode(String data) {
+        JsonElement parsed = JsonParser.parseString(data);
+        JsonObject root = parsed.getAsJsonObject();
+        JsonArray choices = root.getAsJsonArray("choices");
+        if (choices == null || choices.size() == 0) {
+            return null;
+        }
+        JsonObject choice = choices.get(0).getAsJsonObject();
+        JsonElement finishReason = choice.get("finish_reason");
+        boolean truncated = finishReason != null && !finishReason.isJsonNull()
+                && "length".equals(finishReason.getAsString());
+        JsonObject delta = choice.getAsJsonObject("delta");
+        String content = delta == null || !delta.has("content") ? null : delta.get("content").getAsString();
+        return new Chunk(content, truncated);
+    }
+
+    static final class Chunk {
+        final String content;
+        /**
+         * The model stopped at its token limit.
+         */
+        final boolean truncated;
+
+        Chunk(String content, boolean truncated) {
+            this.content = content;
+            this.truncated = truncated;
+        }
+    }
+}
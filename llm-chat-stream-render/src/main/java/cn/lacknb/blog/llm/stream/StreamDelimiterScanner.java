@@ -0,0 +1,320 @@
+package cn.lacknb.blog.llm.stream;
+
+/**
+ * Single-pass scanner that splits streamed text into text, code and think segments. Only the
+ * current line prefix is carried over a chunk boundary.
+ */
+final class StreamDelimiterScanner {
+    interface Sink {
+        void text(CharSequence text);
+
+        void codeOpened();
+
+        void codeLanguage(String language);
+
+        void code(CharSequence text);
+
+        void codeClosed();
+
+        void thinkOpened();
+
+        void think(CharSequence text);
+
+        void thinkClosed();
+    }
+
+    private static final String FENCE = "```";
+    private static final String THINK_OPEN = "<think>";
+    private static final String THINK_CLOSE = "</think>";
+    private static final int RECOVERY_MIN_HASH_DEFAULT = 4;
+    private static final int RECOVERY_MIN_HASH_PLAIN = 2;
+
+    private static final int CANDIDATE_FENCE = 1;
+    private static final int CANDIDATE_THINK_OPEN = 1 << 1;
+    private static final int CANDIDATE_THINK_CLOSE = 1 << 2;
+    private static final int CANDIDATE_HEADING = 1 << 3;
+
+    private final Sink sink;
+    private final StringBuilder carried = new StringBuilder();
+    private final StringBuilder languageBuffer = new StringBuilder();
+    private Mode mode = Mode.TEXT;
+    private String activeLanguage = "";
+    private boolean inPrefix = true;
+    private int candidates = candidatesFor(Mode.TEXT);
+    private int indent;
+    private int token;
+    private boolean skipLineFeed;
+
+    // Per-feed positions. Negative values address the carried prefix, which logically precedes
+    // index 0 of the current chunk.
+    private CharSequence chunk;
+    private int runStart;
+    private int prefixStart;
+
+    StreamDelimiterScanner(Sink sink) {
+        this.sink = sink;
+    }
+
+    void feed(CharSequence data) {
+        if (data == null || data.length() == 0) {
+            return;
+        }
+        chunk = data;
+        int len = data.length();
+        runStart = -carried.length();
+        prefixStart = inPrefix ? -carried.length() : 0;
+        int i = 0;
+        while (i < len) {
+            char c = data.charAt(i);
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (c == '\n') {
+                    i++;
+                    runStart = i;
+                    prefixStart = i;
+                    continue;
+                }
+            }
+            if (mode == Mode.CODE_LANG) {
+                i = consumeLanguageChar(c, i);
+                continue;
+            }
+            if (!inPrefix) {
+                int lineEnd = i;
+                while (lineEnd < len && data.charAt(lineEnd) != '\n' && data.charAt(lineEnd) != '\r') {
+                    lineEnd++;
+                }
+                if (lineEnd < len) {
+                    startPrefix(lineEnd + 1);
+                }
+                i = lineEnd + 1;
+                continue;
+            }
+            if (token == 0 && (c == ' ' || c == '\t')) {
+                indent++;
+                i++;
+                continue;
+            }
+            int remaining = narrowCandidates(c);
+            if (remaining == 0) {
+                inPrefix = false;
+                if (carried.length() > 0) {
+                    emit(runStart, 0);
+                    carried.setLength(0);
+                    runStart = 0;
+                }
+                continue;
+            }
+            token++;
+            int matched = completedCandidate(c);
+            i++;
+            if (matched != 0) {
+                onDelimiter(matched, i);
+            }
+        }
+        if (mode == Mode.CODE_LANG) {
+            carried.setLength(0);
+        } else if (inPrefix) {
+            emit(runStart, prefixStart);
+            carry(Math.max(prefixStart, 0), len);
+        } else {
+            emit(runStart, len);
+            carried.setLength(0);
+        }
+        chunk = null;
+    }
+
+    void finish() {
+        if (mode != Mode.CODE_LANG && carried.length() > 0) {
+            emitContent(carried.toString());
+        }
+        carried.setLength(0);
+        skipLineFeed = false;
+        if (mode == Mode.CODE_LANG) {
+            resolveLanguage();
+        }
+        startPrefix(0);
+    }
+
+    private int consumeLanguageChar(char c, int i) {
+        if (c == '\n' || c == '\r') {
+            resolveLanguage();
+            skipLineFeed = c == '\r';
+            startPrefix(i + 1);
+            runStart = i + 1;
+            return i + 1;
+        }
+        if (isLanguageChar(c)) {
+            languageBuffer.append(c);
+            runStart = i + 1;
+            return i + 1;
+        }
+        resolveLanguage();
+        inPrefix = false;
+        runStart = i;
+        return i;
+    }
+
+    private void resolveLanguage() {
+        activeLanguage = languageBuffer.toString().trim();
+        languageBuffer.setLength(0);
+        mode = Mode.CODE;
+        sink.codeLanguage(activeLanguage);
+    }
+
+    private void startPrefix(int start) {
+        inPrefix = true;
+        prefixStart = start;
+        indent = 0;
+        token = 0;
+        candidates = candidatesFor(mode);
+    }
+
+    private int narrowCandidates(char c) {
+        int next = 0;
+        if ((candidates & CANDIDATE_FENCE) != 0 && literalAccepts(FENCE, c)) {
+            next |= CANDIDATE_FENCE;
+        }
+        if ((candidates & CANDIDATE_THINK_OPEN) != 0 && literalAccepts(THINK_OPEN, c)) {
+            next |= CANDIDATE_THINK_OPEN;
+        }
+        if ((candidates & CANDIDATE_THINK_CLOSE) != 0 && literalAccepts(THINK_CLOSE, c)) {
+            next |= CANDIDATE_THINK_CLOSE;
+        }
+        if ((candidates & CANDIDATE_HEADING) != 0
+                && (c == '#' || (c == ' ' && token >= minHeadingHashes()))) {
+            next |= CANDIDATE_HEADING;
+        }
+        candidates = next;
+        return next;
+    }
+
+    private boolean literalAccepts(String literal, char c) {
+        return token < literal.length() && literal.charAt(token) == c;
+    }
+
+    private int completedCandidate(char c) {
+        if ((candidates & CANDIDATE_FENCE) != 0 && token == FENCE.length()) {
+            return CANDIDATE_FENCE;
+        }
+        if ((candidates & CANDIDATE_THINK_OPEN) != 0 && token == THINK_OPEN.length()) {
+            return CANDIDATE_THINK_OPEN;
+        }
+        if ((candidates & CANDIDATE_THINK_CLOSE) != 0 && token == THINK_CLOSE.length()) {
+            return CANDIDATE_THINK_CLOSE;
+        }
+        if ((candidates & CANDIDATE_HEADING) != 0 && c == ' ') {
+            return CANDIDATE_HEADING;
+        }
+        return 0;
+    }
+
+    private void onDelimiter(int matched, int end) {
+        int indentEnd = prefixStart + indent;
+        inPrefix = false;
+        if (matched == CANDIDATE_HEADING) {
+            emit(runStart, prefixStart);
+            mode = Mode.TEXT;
+            activeLanguage = "";
+            sink.codeClosed();
+            emit(prefixStart, end);
+        } else {
+            emit(runStart, indentEnd);
+            if (matched == CANDIDATE_FENCE && mode == Mode.TEXT) {
+                mode = Mode.CODE_LANG;
+                languageBuffer.setLength(0);
+                sink.codeOpened();
+            } else if (matched == CANDIDATE_FENCE) {
+                mode = Mode.TEXT;
+                activeLanguage = "";
+                sink.codeClosed();
+            } else if (matched == CANDIDATE_THINK_OPEN) {
+                mode = Mode.THINK;
+                sink.thinkOpened();
+            } else {
+                mode = Mode.TEXT;
+                sink.thinkClosed();
+            }
+        }
+        carried.setLength(0);
+        runStart = end;
+    }
+
+    private void emit(int from, int to) {
+        if (to <= from) {
+            return;
+        }
+        if (from >= 0) {
+            emitContent(chunk.subSequence(from, to));
+            return;
+        }
+        int carriedLength = carried.length();
+        if (to <= 0) {
+            emitContent(carried.subSequence(carriedLength + from, carriedLength + to));
+            return;
+        }
+        StringBuilder joined = new StringBuilder(to - from);
+        joined.append(carried, carriedLength + from, carriedLength);
+        joined.append(chunk, 0, to);
+        emitContent(joined);
+    }
+
+    private void carry(int from, int to) {
+        if (prefixStart >= 0) {
+            carried.setLength(0);
+        }
+        carried.append(chunk, from, to);
+    }
+
+    private void emitContent(CharSequence text) {
+        if (text.length() == 0) {
+            return;
+        }
+        if (mode == Mode.CODE) {
+            sink.code(text);
+        } else if (mode == Mode.THINK) {
+            sink.think(text);
+        } else {
+            sink.text(text);
+        }
+    }
+
+    private int minHeadingHashes() {
+        return isPlainTextLanguage(activeLanguage) ? RECOVERY_MIN_HASH_PLAIN : RECOVERY_MIN_HASH_DEFAULT;
+    }
+
+    private static int candidatesFor(Mode mode) {
+        switch (mode) {
+            case CODE:
+                return CANDIDATE_FENCE | CANDIDATE_HEADING;
+            case THINK:
+                return CANDIDATE_THINK_CLOSE;
+            case TEXT:
+                return CANDIDATE_FENCE | CANDIDATE_THINK_OPEN;
+            default:
+                return 0;
+        }
+    }
+
+    static boolean isPlainTextLanguage(String language) {
+        if (language == null) {
+            return true;
+        }
+        String normalized = language.trim().toLowerCase();
+        return normalized.isEmpty()
+                || "text".equals(normalized)
+                || "plaintext".equals(normalized)
+                || "plain".equals(normalized);
+    }
+
+    static boolean isLanguageChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '+' || c == '#' || c == '.' || c == '-';
+    }
+
+    private enum Mode {
+        TEXT,
+        CODE_LANG,
+        CODE,
+        THINK
+    }
+}
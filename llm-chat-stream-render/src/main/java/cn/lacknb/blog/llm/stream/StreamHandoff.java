@@ -0,0 +1,78 @@
+package cn.lacknb.blog.llm.stream;
+
+import javax.swing.SwingUtilities;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Signals the EDT that a stream's {@link ResponseBuffer} has grown, with at most one drain queued
+ * per stream.
+ */
+final class StreamHandoff {
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final AtomicReference<Runnable> terminal = new AtomicReference<>();
+    private final AtomicInteger backlog = new AtomicInteger();
+    private final AtomicInteger maxBacklog = new AtomicInteger();
+    private final AtomicInteger offered = new AtomicInteger();
+    private final BooleanSupplier active;
+    private final Runnable consumer;
+    private int drains;
+
+    StreamHandoff(BooleanSupplier active, Runnable consumer) {
+        this.active = active;
+        this.consumer = consumer;
+    }
+
+    /**
+     * Called from the stream thread.
+     */
+    void offer() {
+        offered.incrementAndGet();
+        updateMax(maxBacklog, backlog.incrementAndGet());
+        scheduleDrain();
+    }
+
+    /**
+     * Runs {@code onEdt} on the EDT after every delta offered before this call has been delivered.
+     */
+    void finish(Runnable onEdt) {
+        terminal.set(onEdt);
+        scheduleDrain();
+    }
+
+    String describe() {
+        return offered.get() + " deltas in " + drains + " EDT drains, max backlog " + maxBacklog.get() + " deltas";
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::drain);
+        }
+    }
+
+    private void drain() {
+        drainScheduled.set(false);
+        drains++;
+        // Read first: it is published after the last delta.
+        Runnable done = terminal.getAndSet(null);
+        int arrived = backlog.getAndSet(0);
+        if (!active.getAsBoolean()) {
+            return;
+        }
+        if (arrived > 0) {
+            consumer.run();
+        }
+        if (done != null) {
+            done.run();
+        }
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        int current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+}
@@ -1,339 +1,217 @@
 package cn.lacknb.blog.llm.stream;
 
 import com.intellij.icons.AllIcons;
-import com.intellij.openapi.command.CommandProcessor;
-import com.intellij.openapi.command.WriteCommandAction;
-import com.intellij.openapi.editor.Document;
-import com.intellij.openapi.editor.Editor;
-import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.editor.colors.EditorColorsManager;
-import com.intellij.openapi.fileTypes.FileType;
-import com.intellij.openapi.fileTypes.FileTypeManager;
-import com.intellij.openapi.fileTypes.PlainTextFileType;
-import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.editor.colors.EditorColorsScheme;
 import com.intellij.openapi.project.Project;
-import com.intellij.ui.EditorTextField;
+import com.intellij.openapi.util.Disposer;
 import com.intellij.ui.JBColor;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.ui.JBUI;
 import com.intellij.util.ui.UIUtil;
 
-import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
 import javax.swing.JEditorPane;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
-import javax.swing.ScrollPaneConstants;
 import javax.swing.JTextArea;
-import javax.swing.Timer;
+import javax.swing.SwingUtilities;
+import javax.swing.text.Document;
+import javax.swing.text.html.HTMLDocument;
 import java.awt.BorderLayout;
 import java.awt.Component;
 import java.awt.Container;
 import java.awt.Dimension;
+import java.awt.Font;
 import java.awt.Cursor;
-import java.awt.FlowLayout;
-import java.awt.Toolkit;
-import java.awt.datatransfer.StringSelection;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
 
-public class StreamMarkdownPanel extends JPanel {
+/**
+ * The rendered body of one assistant message. Disposing it drops pending frames and renders and
+ * hands code block editors back to the pool.
+ */
+public class StreamMarkdownPanel extends JPanel implements Disposable {
     private final Project project;
-    private final StringBuilder pendingBuffer = new StringBuilder();
+    private final ArrayDeque<CharSequence> pendingChunks = new ArrayDeque<>();
     private final List<Component> blockComponents = new ArrayList<>();
-    private final MarkdownRenderer renderer = new MarkdownRenderer();
-    private final Timer updateTimer;
-    private String pendingFragment = "";
+    private final MarkdownDocumentRenderer renderer = new MarkdownDocumentRenderer();
+    private final MarkdownRenderWorker renderWorker = new MarkdownRenderWorker(renderer);
+    private final FrameScheduler frameScheduler;
+    private final FrameScheduler.Task frameTask = this::runFrame;
+    private final ScannerSink scannerSink = new ScannerSink();
+    private final StreamDelimiterScanner scanner;
     private BlockMode mode = BlockMode.TEXT;
     private String activeLanguage = "";
     private StringBuilder activeBuffer = new StringBuilder();
     private Component activeComponent;
     private int activeIndex = -1;
-    private StringBuilder languageBuffer = new StringBuilder();
-    private final StringBuilder codePendingBuffer = new StringBuilder();
-    private final Timer codeFlushTimer;
+    private final CodeEditorPool codeEditorPool;
     private CodeBlockPanel flushTarget;
-    private static final int CODE_CHUNK_SIZE = 200;
-    private static final int CODE_FLUSH_INTERVAL_MS = 16;
-    private static final String CODE_COMMAND_GROUP = "LLM Stream Code";
-    private static final int DELIMITER_TAIL = 12;
-    private static final int RECOVERY_MIN_HASH_DEFAULT = 4;
-
-    public StreamMarkdownPanel(Project project) {
+    private static final int DEGRADE_SIZE_CHARS = 128 * 1024;
+    private static final int DEGRADE_RATE_CHARS_PER_SECOND = 32 * 1024;
+    private static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+    private long receivedChars;
+    private long rateWindowStartNanos;
+    private int rateWindowChars;
+    private JTextArea degradedView;
+    private boolean disposed;
+
+    StreamMarkdownPanel(Project project, FrameScheduler frameScheduler, CodeEditorPool codeEditorPool) {
         this.project = project;
+        this.frameScheduler = frameScheduler;
+        this.codeEditorPool = codeEditorPool;
         setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
         setBackground(UIUtil.getPanelBackground());
-        updateTimer = new Timer(80, e -> flushPending());
-        updateTimer.setRepeats(true);
-        codeFlushTimer = new Timer(CODE_FLUSH_INTERVAL_MS, e -> flushCodePending(false));
-        codeFlushTimer.setRepeats(true);
+        scanner = new StreamDelimiterScanner(scannerSink);
     }
 
-    public void appendText(String chunk) {
-        if (chunk == null || chunk.isEmpty()) {
+    public void appendText(CharSequence chunk) {
+        if (disposed || chunk == null || chunk.length() == 0) {
             return;
         }
-        pendingBuffer.append(chunk);
-        if (!updateTimer.isRunning()) {
-            updateTimer.start();
+        if (degradedView == null && exceedsRenderBudget(chunk.length())) {
+            enterDegradedMode();
+        }
+        if (degradedView != null) {
+            degradedView.append(chunk.toString());
+            return;
         }
+        pendingChunks.add(chunk);
+        frameScheduler.request(frameTask);
     }
 
-    private void flushPending() {
-        if (pendingBuffer.length() == 0) {
-            updateTimer.stop();
+    /**
+     * For a rebuilt row; skips the streaming render budget.
+     */
+    void appendRebuiltText(CharSequence text) {
+        if (disposed || text.length() == 0) {
             return;
         }
-        String chunk = pendingBuffer.toString();
-        pendingBuffer.setLength(0);
-        consumeChunk(chunk, false);
+        pendingChunks.add(text);
+        frameScheduler.request(frameTask);
     }
 
-    public void finish() {
-        String chunk = pendingBuffer.toString();
-        pendingBuffer.setLength(0);
-        String data = pendingFragment + chunk;
-        pendingFragment = "";
-        if (!data.isEmpty()) {
-            consumeChunk(data, true);
-        }
-        if (!codeFlushTimer.isRunning() && codePendingBuffer.length() > 0) {
-            flushCodePending(true);
-        }
-        if (mode == BlockMode.CODE_LANG) {
-            activeLanguage = languageBuffer.toString().trim();
-            mode = BlockMode.CODE;
-            if (!activeLanguage.isBlank()) {
-                upgradeCodeEditor();
-            }
+    private boolean exceedsRenderBudget(int length) {
+        receivedChars += length;
+        long now = System.nanoTime();
+        if (now - rateWindowStartNanos > RATE_WINDOW_NANOS) {
+            rateWindowStartNanos = now;
+            rateWindowChars = 0;
         }
+        rateWindowChars += length;
+        return receivedChars > DEGRADE_SIZE_CHARS || rateWindowChars > DEGRADE_RATE_CHARS_PER_SECOND;
     }
 
-    private void consumeChunk(String chunk, boolean force) {
-        if (chunk == null || chunk.isEmpty()) {
-            return;
-        }
-        String data = pendingFragment + chunk;
-        pendingFragment = "";
-        int index = 0;
-        while (index < data.length()) {
-            if (mode == BlockMode.TEXT) {
-                int codeIndex = findFenceIndex(data, index);
-                int thinkIndex = findThinkIndex(data, index, "<think>");
-                int next = nextDelimiter(codeIndex, thinkIndex);
-                if (next == -1) {
-                    if (force) {
-                        appendTextBlock(data.substring(index));
-                        return;
-                    }
-                    int tail = Math.min(DELIMITER_TAIL, data.length() - index);
-                    if (data.length() - index <= DELIMITER_TAIL) {
-                        pendingFragment = data.substring(index);
-                        return;
-                    }
-                    appendTextBlock(data.substring(index, data.length() - tail));
-                    pendingFragment = data.substring(data.length() - tail);
-                    return;
-                }
-                if (next > index) {
-                    appendTextBlock(data.substring(index, next));
-                }
-                if (next == codeIndex) {
-                    activeLanguage = "";
-                    switchToCode();
-                    mode = BlockMode.CODE_LANG;
-                    languageBuffer.setLength(0);
-                    index = codeIndex + 3;
-                    continue;
-                }
-                if (next == thinkIndex) {
-                    switchToThink();
-                    index = next + "<think>".length();
-                    continue;
-                }
-            } else if (mode == BlockMode.CODE_LANG) {
-                if (index >= data.length()) {
-                    return;
-                }
-                char c = data.charAt(index);
-                if (c == '\n' || c == '\r') {
-                    activeLanguage = languageBuffer.toString().trim();
-                    mode = BlockMode.CODE;
-                    if (!activeLanguage.isBlank()) {
-                        upgradeCodeEditor();
-                    }
-                    if (c == '\r' && index + 1 < data.length() && data.charAt(index + 1) == '\n') {
-                        index += 2;
-                    } else {
-                        index += 1;
-                    }
-                    continue;
-                }
-                if (isLanguageChar(c)) {
-                    languageBuffer.append(c);
-                    index += 1;
-                    continue;
-                }
-                activeLanguage = languageBuffer.toString().trim();
-                mode = BlockMode.CODE;
-                if (!activeLanguage.isBlank()) {
-                    upgradeCodeEditor();
-                }
-            } else if (mode == BlockMode.CODE) {
-                int codeIndex = findFenceIndex(data, index);
-                if (codeIndex == -1) {
-                    int minHashes = RECOVERY_MIN_HASH_DEFAULT;
-                    if (isPlainTextLanguage(activeLanguage)) {
-                        minHashes = 2;
-                    }
-                    int recoveryIndex = findMarkdownHeadingIndex(data, index, minHashes);
-                    if (recoveryIndex != -1) {
-                        if (recoveryIndex > index) {
-                            appendCode(data.substring(index, recoveryIndex));
-                        }
-                        finishCodeBlock();
-                        index = recoveryIndex;
-                        continue;
-                    }
-                }
-                if (codeIndex == -1) {
-                    if (force) {
-                        appendCode(data.substring(index));
-                        return;
-                    }
-                    int tail = Math.min(DELIMITER_TAIL, data.length() - index);
-                    if (data.length() - index <= DELIMITER_TAIL) {
-                        pendingFragment = data.substring(index);
-                        return;
-                    }
-                    appendCode(data.substring(index, data.length() - tail));
-                    pendingFragment = data.substring(data.length() - tail);
-                    return;
-                }
-                if (codeIndex > index) {
-                    appendCode(data.substring(index, codeIndex));
-                }
-                finishCodeBlock();
-                index = codeIndex + 3;
-            } else if (mode == BlockMode.THINK) {
-                int thinkEnd = findThinkIndex(data, index, "</think>");
-                if (thinkEnd == -1) {
-                    if (force) {
-                        appendThink(data.substring(index));
-                        return;
-                    }
-                    int tail = Math.min(DELIMITER_TAIL, data.length() - index);
-                    if (data.length() - index <= DELIMITER_TAIL) {
-                        pendingFragment = data.substring(index);
-                        return;
-                    }
-                    appendThink(data.substring(index, data.length() - tail));
-                    pendingFragment = data.substring(data.length() - tail);
-                    return;
-                }
-                if (thinkEnd > index) {
-                    appendThink(data.substring(index, thinkEnd));
-                }
-                finishThink();
-                index = thinkEnd + "</think>".length();
-            }
-        }
+    /**
+     * The rest of the response goes to a plain view until {@link #finish()}.
+     */
+    private void enterDegradedMode() {
+        feedPendingChunks();
+        flushCodePending(Integer.MAX_VALUE);
+        frameScheduler.cancel(frameTask);
+        degradedView = new JTextArea();
+        degradedView.setEditable(false);
+        degradedView.setLineWrap(true);
+        degradedView.setOpaque(false);
+        degradedView.setBorder(JBUI.Borders.empty(4, 8));
+        EditorColorsScheme scheme = EditorColorsManager.getInstance().getGlobalScheme();
+        degradedView.setFont(new Font(scheme.getEditorFontName(), Font.PLAIN, scheme.getEditorFontSize()));
+        degradedView.setAlignmentX(Component.LEFT_ALIGNMENT);
+        degradedView.setMaximumSize(new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE));
+        add(degradedView);
+        revalidate();
     }
 
-    private int nextDelimiter(int codeIndex, int thinkIndex) {
-        if (codeIndex == -1) {
-            return thinkIndex;
+    private void feedPendingChunks() {
+        if (pendingChunks.isEmpty()) {
+            return;
         }
-        if (thinkIndex == -1) {
-            return codeIndex;
+        long start = System.nanoTime();
+        int fed = 0;
+        CharSequence chunk;
+        while ((chunk = pendingChunks.poll()) != null) {
+            scanner.feed(chunk);
+            fed += chunk.length();
         }
-        return Math.min(codeIndex, thinkIndex);
+        frameScheduler.getSlowFrames().record("feedPendingChunks", blockType(), fed, System.nanoTime() - start);
     }
 
-    private int findFenceIndex(String data, int from) {
-        int len = data.length();
-        for (int i = Math.max(0, from); i + 3 <= len; i++) {
-            if (data.charAt(i) == '`' && data.startsWith("```", i) && isLineStartWithIndent(data, i)) {
-                return i;
-            }
-        }
-        return -1;
+    private boolean runFrame(int chunkSize) {
+        feedPendingChunks();
+        flushCodePending(chunkSize);
+        return flushTarget != null;
     }
 
-    private int findMarkdownHeadingIndex(String data, int from, int minHashes) {
-        int len = data.length();
-        int i = Math.max(0, from);
-        while (i < len) {
-            if (!isLineStartWithIndent(data, i)) {
-                i++;
-                continue;
-            }
-            int j = i;
-            while (j < len && (data.charAt(j) == ' ' || data.charAt(j) == '\t')) {
-                j++;
-            }
-            int hashCount = 0;
-            while (j < len && data.charAt(j) == '#') {
-                hashCount++;
-                j++;
-            }
-            if (hashCount >= minHashes && j < len && data.charAt(j) == ' ') {
-                return i;
-            }
-            i = j + 1;
+    public void finish() {
+        if (disposed) {
+            return;
         }
-        return -1;
-    }
-
-    private boolean isPlainTextLanguage(String language) {
-        if (language == null) {
-            return true;
+        if (degradedView != null) {
+            finishDeferred(degradedView.getText());
+            return;
         }
-        String normalized = language.trim().toLowerCase();
-        return normalized.isEmpty()
-                || "text".equals(normalized)
-                || "plaintext".equals(normalized)
-                || "plain".equals(normalized);
+        feedPendingChunks();
+        scanner.finish();
+        completeBlocks();
     }
 
-    private int findThinkIndex(String data, int from, String tag) {
-        int idx = data.indexOf(tag, from);
-        while (idx != -1) {
-            if (isLineStartWithIndent(data, idx)) {
-                return idx;
-            }
-            idx = data.indexOf(tag, idx + 1);
-        }
-        return -1;
+    /**
+     * Nothing else feeds the scanner after finish, so it can run off the EDT.
+     */
+    private void finishDeferred(String deferred) {
+        List<Runnable> events = new ArrayList<>();
+        scannerSink.recorded = events;
+        AppExecutorUtil.getAppExecutorService().execute(() -> {
+            scanner.feed(deferred);
+            scanner.finish();
+            SwingUtilities.invokeLater(() -> {
+                scannerSink.recorded = null;
+                if (disposed) {
+                    return;
+                }
+                remove(degradedView);
+                degradedView = null;
+                for (Runnable event : events) {
+                    event.run();
+                }
+                completeBlocks();
+            });
+        });
     }
 
-    private boolean isLineStartWithIndent(String data, int index) {
-        int i = index - 1;
-        while (i >= 0) {
-            char c = data.charAt(i);
-            if (c == '\n' || c == '\r') {
-                return true;
-            }
-            if (c == ' ' || c == '\t') {
-                i--;
-                continue;
-            }
-            return false;
+    private void completeBlocks() {
+        completeTextBlock();
+        if (mode == BlockMode.THINK) {
+            finishThink();
         }
-        return true;
+        // Nothing is appended after finish, so drop the streaming buffer.
+        activeBuffer = new StringBuilder();
+        flushCodePending(Integer.MAX_VALUE);
+        frameScheduler.cancel(frameTask);
     }
 
-    private boolean isLanguageChar(char c) {
-        return Character.isLetterOrDigit(c) || c == '_' || c == '+' || c == '#' || c == '.' || c == '-';
+    @Override
+    public void dispose() {
+        disposed = true;
+        frameScheduler.cancel(frameTask);
+        pendingChunks.clear();
+        flushTarget = null;
+        activeComponent = null;
+        activeBuffer = new StringBuilder();
     }
 
     private void switchToText() {
+        completeTextBlock();
         mode = BlockMode.TEXT;
         activeLanguage = "";
         activeBuffer = new StringBuilder();
-        activeComponent = createTextComponent("");
+        activeComponent = new TextBlockPanel();
+        Disposer.register(this, (Disposable) activeComponent);
         activeIndex = blockComponents.size();
         blockComponents.add(activeComponent);
         add(activeComponent);
@@ -341,9 +219,13 @@ public class StreamMarkdownPanel extends JPanel {
     }
 
     private void switchToCode() {
+        completeTextBlock();
         mode = BlockMode.CODE;
         activeBuffer = new StringBuilder();
-        activeComponent = createStreamingCodeComponent(new MarkdownBlock(MarkdownBlock.Type.CODE, "", activeLanguage, false));
+        CodeBlockPanel codeBlock = new CodeBlockPanel(project, codeEditorPool, activeLanguage);
+        codeEditorPool.register(codeBlock);
+        Disposer.register(this, codeBlock);
+        activeComponent = codeBlock;
         activeIndex = blockComponents.size();
         blockComponents.add(activeComponent);
         add(activeComponent);
@@ -351,78 +233,81 @@ public class StreamMarkdownPanel extends JPanel {
     }
 
     private void switchToThink() {
+        completeTextBlock();
         mode = BlockMode.THINK;
         activeBuffer = new StringBuilder();
-        JLabel thinkLabel = new JLabel(renderer.toHtml("*" + "" + "*"));
-        thinkLabel.setForeground(JBColor.GRAY);
-        thinkLabel.setBorder(JBUI.Borders.empty(4, 8));
-        thinkLabel.setAlignmentX(Component.LEFT_ALIGNMENT);
-        activeComponent = thinkLabel;
+        activeComponent = new ThinkBlockPanel();
+        Disposer.register(this, (Disposable) activeComponent);
         activeIndex = blockComponents.size();
         blockComponents.add(activeComponent);
         add(activeComponent);
         revalidate();
     }
 
-    private void appendTextBlock(String text) {
-        if (text == null || text.isEmpty()) {
+    private void completeTextBlock() {
+        if (activeComponent instanceof TextBlockPanel) {
+            renderWorker.complete(((TextBlockPanel) activeComponent).generation);
+        }
+    }
+
+    private void appendTextBlock(CharSequence text) {
+        if (text == null || text.length() == 0) {
             return;
         }
         if (mode != BlockMode.TEXT || activeComponent == null) {
             switchToText();
         }
         activeBuffer.append(text);
-        if (activeComponent instanceof JEditorPane) {
-            ((JEditorPane) activeComponent).setText(renderer.toHtml(activeBuffer.toString()));
-            activeComponent.revalidate();
+        if (activeComponent instanceof TextBlockPanel) {
+            // Paragraphs that can no longer change get their own pane and leave activeBuffer.
+            TextBlockPanel block = (TextBlockPanel) activeComponent;
+            String frozen = null;
+            int split = block.freezer.findSplit(activeBuffer);
+            if (split > 0) {
+                frozen = activeBuffer.substring(0, split);
+                activeBuffer.delete(0, split);
+                block.freezer.onFrozen(split);
+            }
+            renderWorker.render(block.generation, frozen, activeBuffer.toString(), block::apply);
         }
     }
 
-    private void appendCode(String text) {
-        if (text == null || text.isEmpty()) {
+    private void appendCode(CharSequence text) {
+        if (text == null || text.length() == 0) {
             return;
         }
         if (mode != BlockMode.CODE || activeComponent == null) {
             switchToCode();
         }
-        activeBuffer.append(text);
-        if (activeComponent instanceof StreamingCodePanel) {
-            ((StreamingCodePanel) activeComponent).appendText(text);
-            activeComponent.revalidate();
-        } else if (activeComponent instanceof CodeBlockPanel) {
-            enqueueCode((CodeBlockPanel) activeComponent, text);
+        if (activeComponent instanceof CodeBlockPanel) {
+            CodeBlockPanel codeBlock = (CodeBlockPanel) activeComponent;
+            codeBlock.append(text);
+            if (codeBlock.hasEditor()) {
+                enqueueCode(codeBlock);
+            } else {
+                codeBlock.revalidate();
+            }
         }
     }
 
-    private void appendThink(String text) {
-        if (text == null || text.isEmpty()) {
+    private void appendThink(CharSequence text) {
+        if (text == null || text.length() == 0) {
             return;
         }
         if (mode != BlockMode.THINK || activeComponent == null) {
             switchToThink();
         }
-        activeBuffer.append(text);
-        if (activeComponent instanceof JLabel) {
-            ((JLabel) activeComponent).setText(renderer.toHtml("*" + activeBuffer + "*"));
-            activeComponent.revalidate();
+        if (activeComponent instanceof ThinkBlockPanel) {
+            ((ThinkBlockPanel) activeComponent).append(text);
         }
     }
 
     private void finishCodeBlock() {
-        if (activeComponent instanceof StreamingCodePanel) {
-            String content = activeBuffer.toString();
-            MarkdownBlock block = new MarkdownBlock(MarkdownBlock.Type.CODE, content, activeLanguage, true);
-            Component replacement = createCodeComponent(block);
-            remove(activeComponent);
-            blockComponents.set(activeIndex, replacement);
-            add(replacement, activeIndex);
-        } else if (activeComponent instanceof CodeBlockPanel) {
-            flushTarget = (CodeBlockPanel) activeComponent;
-            if (codePendingBuffer.length() >= CODE_CHUNK_SIZE && !codeFlushTimer.isRunning()) {
-                codeFlushTimer.start();
-            } else if (codePendingBuffer.length() > 0 && !codeFlushTimer.isRunning()) {
-                flushCodePending(true);
-            }
+        if (activeComponent instanceof CodeBlockPanel) {
+            CodeBlockPanel codeBlock = (CodeBlockPanel) activeComponent;
+            long start = System.nanoTime();
+            codeBlock.complete();
+            frameScheduler.getSlowFrames().record("finishCodeBlock", "code", codeBlock.getTextLength(), System.nanoTime() - start);
         }
         activeComponent = null;
         activeIndex = -1;
@@ -433,75 +318,43 @@ public class StreamMarkdownPanel extends JPanel {
         repaint();
     }
 
-    private void upgradeCodeEditor() {
-        if (!(activeComponent instanceof StreamingCodePanel)) {
-            return;
+    private void enqueueCode(CodeBlockPanel codeBlock) {
+        if (flushTarget != codeBlock) {
+            // Code still queued for the previous block belongs to its editor, not this one.
+            flushCodePending(Integer.MAX_VALUE);
+            flushTarget = codeBlock;
         }
-        String content = activeBuffer.toString();
-        MarkdownBlock block = new MarkdownBlock(MarkdownBlock.Type.CODE, content, activeLanguage, false);
-        Component replacement = createCodeComponent(block);
-        remove(activeComponent);
-        blockComponents.set(activeIndex, replacement);
-        add(replacement, activeIndex);
-        activeComponent = replacement;
-        revalidate();
-        repaint();
+        frameScheduler.request(frameTask);
     }
 
-    private void enqueueCode(CodeBlockPanel panel, String text) {
-        if (text == null || text.isEmpty()) {
+    private void flushCodePending(int maxChars) {
+        CodeBlockPanel target = flushTarget;
+        if (target == null) {
             return;
         }
-        flushTarget = panel;
-        codePendingBuffer.append(text);
-        if (codePendingBuffer.length() < CODE_CHUNK_SIZE) {
-            if (!codeFlushTimer.isRunning()) {
-                flushCodePending(true);
-            }
-            return;
-        }
-        if (!codeFlushTimer.isRunning()) {
-            codeFlushTimer.start();
-        }
-    }
-
-    private void flushCodePending(boolean drainAll) {
-        if (flushTarget == null) {
-            codeFlushTimer.stop();
-            codePendingBuffer.setLength(0);
-            return;
-        }
-        if (codePendingBuffer.length() == 0) {
-            codeFlushTimer.stop();
-            flushTarget = null;
-            return;
-        }
-        int len = drainAll ? codePendingBuffer.length() : Math.min(CODE_CHUNK_SIZE, codePendingBuffer.length());
-        String text = codePendingBuffer.substring(0, len);
-        codePendingBuffer.delete(0, len);
-        appendToEditor(flushTarget, text);
-        if (!drainAll && codePendingBuffer.length() == 0) {
-            codeFlushTimer.stop();
+        long start = System.nanoTime();
+        if (!target.flushToEditor(maxChars)) {
             flushTarget = null;
         }
+        frameScheduler.getSlowFrames().record("flushCodePending", "code", target.getTextLength(), System.nanoTime() - start);
     }
 
-    private void appendToEditor(CodeBlockPanel panel, String text) {
-        EditorTextField editorTextField = panel.getEditorTextField();
-        Runnable writeTask = () -> {
-            Document doc = editorTextField.getDocument();
-            doc.insertString(doc.getTextLength(), text);
-        };
-        if (ApplicationManager.getApplication().isDispatchThread()) {
-            WriteCommandAction.runWriteCommandAction(project, CODE_COMMAND_GROUP, CODE_COMMAND_GROUP, writeTask);
-        } else {
-            CommandProcessor.getInstance().runUndoTransparentAction(() ->
-                    WriteCommandAction.runWriteCommandAction(project, CODE_COMMAND_GROUP, CODE_COMMAND_GROUP, writeTask)
-            );
+    private String blockType() {
+        switch (mode) {
+            case CODE:
+            case CODE_LANG:
+                return "code";
+            case THINK:
+                return "think";
+            default:
+                return "text";
         }
     }
 
     private void finishThink() {
+        if (activeComponent instanceof ThinkBlockPanel) {
+            ((ThinkBlockPanel) activeComponent).close();
+        }
         activeComponent = null;
         activeIndex = -1;
         activeBuffer = new StringBuilder();
@@ -509,204 +362,197 @@ public class StreamMarkdownPanel extends JPanel {
         revalidate();
     }
 
-    private Component createTextComponent(String text) {
-        JEditorPane pane = new WidthTrackingHtmlPane(renderer.toHtml(text));
+    private JEditorPane createTextComponent(HTMLDocument document) {
+        JEditorPane pane = new WidthTrackingHtmlPane(document);
         pane.setEditable(false);
         pane.setOpaque(false);
         pane.putClientProperty(JEditorPane.HONOR_DISPLAY_PROPERTIES, Boolean.TRUE);
         pane.setFont(UIUtil.getLabelFont());
-        pane.setBorder(JBUI.Borders.empty(4, 8));
+        pane.setBorder(JBUI.Borders.empty(0, 8));
         pane.setAlignmentX(Component.LEFT_ALIGNMENT);
         pane.setMaximumSize(new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE));
         return pane;
     }
 
-    private Component createCodeComponent(MarkdownBlock block) {
-        FileType fileType = PlainTextFileType.INSTANCE;
-        String language = block.getLanguage();
-        if (language != null && !language.isEmpty()) {
-            FileType detected = FileTypeManager.getInstance().getFileTypeByExtension(language);
-            if (detected != null) {
-                fileType = detected;
-            }
-        }
+    private class TextBlockPanel extends JPanel implements Disposable {
+        private final ParagraphFreezer freezer = new ParagraphFreezer();
+        private final MarkdownRenderWorker.Generation generation = new MarkdownRenderWorker.Generation();
+        private final JEditorPane tail;
 
-        EditorTextField editorTextField = new EditorTextField("", project, fileType);
-        editorTextField.setOneLineMode(false);
-        editorTextField.setViewer(true);
-        editorTextField.ensureWillComputePreferredSize();
-        editorTextField.addSettingsProvider(editor -> {
-            editor.getSettings().setUseSoftWraps(true);
-            editor.getSettings().setLineNumbersShown(true);
-            editor.getSettings().setGutterIconsShown(false);
-            editor.setBackgroundColor(UIUtil.getPanelBackground());
-            editor.getScrollPane().setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_NEVER);
-            editor.getScrollPane().setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
-        });
-        editorTextField.setBorder(BorderFactory.createCompoundBorder(
-                JBUI.Borders.empty(4, 8),
-                JBUI.Borders.customLine(JBColor.border(), 1)
-        ));
-        editorTextField.setAlignmentX(Component.LEFT_ALIGNMENT);
-        editorTextField.setMaximumSize(new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE));
-
-        WriteCommandAction.runWriteCommandAction(project, () -> {
-            Document doc = editorTextField.getDocument();
-            doc.setText(block.getContent());
-        });
+        TextBlockPanel() {
+            setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+            setOpaque(false);
+            setBorder(JBUI.Borders.empty(4, 0));
+            setAlignmentX(Component.LEFT_ALIGNMENT);
+            setMaximumSize(new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE));
+            tail = createTextComponent(renderer.render(""));
+            add(tail);
+        }
 
-        CodeBlockPanel wrapper = new CodeBlockPanel(project, editorTextField, language);
-        wrapper.setAlignmentX(Component.LEFT_ALIGNMENT);
-        wrapper.setMaximumSize(new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE));
-        return wrapper;
-    }
+        void apply(HTMLDocument frozen, HTMLDocument tailDocument) {
+            if (frozen != null) {
+                add(createTextComponent(frozen), getComponentCount() - 1);
+            }
+            if (tailDocument != null) {
+                tail.setDocument(tailDocument);
+            }
+            revalidate();
+        }
 
-    private Component createStreamingCodeComponent(MarkdownBlock block) {
-        StreamingCodePanel panel = new StreamingCodePanel(block.getContent());
-        panel.setAlignmentX(Component.LEFT_ALIGNMENT);
-        panel.setMaximumSize(new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE));
-        return panel;
+        @Override
+        public void dispose() {
+            renderWorker.cancel(generation);
+        }
     }
 
-    private static class CodeBlockPanel extends JPanel {
-        private final Project project;
-        private final EditorTextField editorTextField;
-        private final JLabel languageLabel;
-        private String language;
-
-        CodeBlockPanel(Project project, EditorTextField editorTextField, String language) {
+    /**
+     * Reasoning output, collapsed by default and only rendered while expanded.
+     */
+    private class ThinkBlockPanel extends JPanel implements Disposable {
+        private static final int CHARS_PER_TOKEN = 4;
+        private final StringBuilder text = new StringBuilder();
+        private final MarkdownRenderWorker.Generation generation = new MarkdownRenderWorker.Generation();
+        private final JLabel header = new JLabel();
+        private final long startNanos = System.nanoTime();
+        private long elapsedNanos = -1L;
+        private JEditorPane body;
+        private boolean expanded;
+
+        ThinkBlockPanel() {
             super(new BorderLayout());
-            this.project = project;
-            this.editorTextField = editorTextField;
-            this.language = language == null ? "" : language;
-            setBackground(UIUtil.getPanelBackground());
-            setBorder(JBUI.Borders.empty());
-
-            languageLabel = new JLabel(languageLabelText(this.language));
-            languageLabel.setFont(UIUtil.getLabelFont().deriveFont(UIUtil.getFontSize(UIUtil.FontSize.SMALL)));
-            languageLabel.setForeground(UIUtil.getContextHelpForeground());
-
-            JPanel header = new JPanel(new BorderLayout());
-            header.setBackground(UIUtil.getPanelBackground());
+            setOpaque(false);
+            setBorder(JBUI.Borders.empty(4, 8));
+            setAlignmentX(Component.LEFT_ALIGNMENT);
+            setMaximumSize(new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE));
+            header.setForeground(JBColor.GRAY);
+            header.setIcon(AllIcons.General.ArrowRight);
+            header.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+            header.addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    toggle();
+                }
+            });
+            add(header, BorderLayout.NORTH);
+            updateHeader();
+        }
 
-            JPanel left = new JPanel(new FlowLayout(FlowLayout.LEFT, 6, 4));
-            left.setBackground(UIUtil.getPanelBackground());
-            left.add(languageLabel);
+        void append(CharSequence chunk) {
+            text.append(chunk);
+            updateHeader();
+            if (expanded) {
+                renderBody();
+            }
+        }
 
-            JPanel right = new JPanel(new FlowLayout(FlowLayout.RIGHT, 6, 4));
-            right.setBackground(UIUtil.getPanelBackground());
-            right.add(createIconAction(AllIcons.Actions.Copy, "Copy code", this::copyToClipboard));
-            right.add(createIconAction(AllIcons.Actions.Replace, "Replace in editor", this::replaceInEditor));
-            right.add(createIconAction(AllIcons.Actions.MenuPaste, "Insert at caret", this::insertInEditor));
+        void close() {
+            renderWorker.complete(generation);
+            elapsedNanos = System.nanoTime() - startNanos;
+            updateHeader();
+        }
 
-            header.add(left, BorderLayout.WEST);
-            header.add(right, BorderLayout.EAST);
+        @Override
+        public void dispose() {
+            renderWorker.cancel(generation);
+        }
+
+        private void toggle() {
+            expanded = !expanded;
+            header.setIcon(expanded ? AllIcons.General.ArrowDown : AllIcons.General.ArrowRight);
+            if (expanded) {
+                if (body == null) {
+                    body = createTextComponent(renderer.render(""));
+                    body.setForeground(JBColor.GRAY);
+                    add(body, BorderLayout.CENTER);
+                }
+                body.setVisible(true);
+                renderBody();
+            } else if (body != null) {
+                body.setVisible(false);
+            }
+            revalidate();
+            repaint();
+        }
 
-            add(header, BorderLayout.NORTH);
-            add(editorTextField, BorderLayout.CENTER);
+        private void renderBody() {
+            JEditorPane target = body;
+            renderWorker.render(generation, null, "*" + text + "*", (frozen, document) -> {
+                target.setDocument(document);
+                target.revalidate();
+            });
         }
 
-        EditorTextField getEditorTextField() {
-            return editorTextField;
+        private void updateHeader() {
+            boolean open = elapsedNanos < 0;
+            long nanos = open ? System.nanoTime() - startNanos : elapsedNanos;
+            long tokens = (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+            header.setText((open ? "Thinking" : "Thought") + " \u00b7 ~" + tokens + " tokens \u00b7 "
+                    + String.format("%.1f s", nanos / 1_000_000_000.0));
         }
+    }
 
-        void updateLanguage(String newLanguage) {
-            String next = newLanguage == null ? "" : newLanguage;
-            if (!Objects.equals(language, next)) {
-                language = next;
-                languageLabel.setText(languageLabelText(language));
+    private class ScannerSink implements StreamDelimiterScanner.Sink {
+        /**
+         * Set while the scanner runs off the EDT.
+         */
+        private List<Runnable> recorded;
+
+        private void dispatch(Runnable event) {
+            if (recorded != null) {
+                recorded.add(event);
+            } else {
+                event.run();
             }
         }
 
-        private String languageLabelText(String language) {
-            return language == null || language.isBlank() ? "plaintext" : language;
+        @Override
+        public void text(CharSequence text) {
+            dispatch(() -> appendTextBlock(text));
         }
 
-        private JLabel createIconAction(javax.swing.Icon icon, String tooltip, Runnable action) {
-            JLabel label = new JLabel(icon);
-            label.setToolTipText(tooltip);
-            label.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
-            label.addMouseListener(new MouseAdapter() {
-                @Override
-                public void mouseClicked(MouseEvent e) {
-                    action.run();
-                }
+        @Override
+        public void codeOpened() {
+            dispatch(() -> {
+                activeLanguage = "";
+                switchToCode();
+                mode = BlockMode.CODE_LANG;
             });
-            return label;
-        }
-
-        private void copyToClipboard() {
-            StringSelection selection = new StringSelection(editorTextField.getText());
-            Toolkit.getDefaultToolkit().getSystemClipboard().setContents(selection, selection);
         }
 
-        private void replaceInEditor() {
-            Editor editor = FileEditorManager.getInstance(project).getSelectedTextEditor();
-            if (editor == null) {
-                return;
-            }
-            String text = editorTextField.getText();
-            WriteCommandAction.runWriteCommandAction(project, () -> {
-                Document doc = editor.getDocument();
-                int start = editor.getSelectionModel().getSelectionStart();
-                int end = editor.getSelectionModel().getSelectionEnd();
-                if (start != end) {
-                    doc.replaceString(start, end, text);
-                } else {
-                    doc.setText(text);
+        @Override
+        public void codeLanguage(String language) {
+            dispatch(() -> {
+                activeLanguage = language;
+                mode = BlockMode.CODE;
+                if (activeComponent instanceof CodeBlockPanel) {
+                    ((CodeBlockPanel) activeComponent).updateLanguage(language);
                 }
             });
         }
 
-        private void insertInEditor() {
-            Editor editor = FileEditorManager.getInstance(project).getSelectedTextEditor();
-            if (editor == null) {
-                return;
-            }
-            String text = editorTextField.getText();
-            WriteCommandAction.runWriteCommandAction(project, () -> {
-                Document doc = editor.getDocument();
-                int offset = editor.getCaretModel().getOffset();
-                doc.insertString(offset, text);
-            });
+        @Override
+        public void code(CharSequence text) {
+            dispatch(() -> appendCode(text));
         }
-    }
 
-    private static class StreamingCodePanel extends JPanel {
-        private final JTextArea textArea;
+        @Override
+        public void codeClosed() {
+            dispatch(StreamMarkdownPanel.this::finishCodeBlock);
+        }
 
-        StreamingCodePanel(String text) {
-            super(new BorderLayout());
-            setBackground(UIUtil.getPanelBackground());
-            setBorder(JBUI.Borders.compound(
-                    JBUI.Borders.empty(4, 8),
-                    JBUI.Borders.customLine(JBColor.border(), 1)
-            ));
-
-            textArea = new JTextArea(text == null ? "" : text);
-            textArea.setEditable(false);
-            textArea.setLineWrap(true);
-            textArea.setWrapStyleWord(true);
-            textArea.setOpaque(false);
-            textArea.setBorder(JBUI.Borders.empty(4, 6));
-            String fontName = EditorColorsManager.getInstance()
-                    .getGlobalScheme()
-                    .getEditorFontName();
-            int fontSize = EditorColorsManager.getInstance()
-                    .getGlobalScheme()
-                    .getEditorFontSize();
-            textArea.setFont(new java.awt.Font(fontName, java.awt.Font.PLAIN, fontSize));
-            add(textArea, BorderLayout.CENTER);
-        }
-
-        void appendText(String more) {
-            if (more != null && !more.isEmpty()) {
-                textArea.append(more);
-            }
+        @Override
+        public void thinkOpened() {
+            dispatch(StreamMarkdownPanel.this::switchToThink);
+        }
+
+        @Override
+        public void think(CharSequence text) {
+            dispatch(() -> appendThink(text));
         }
 
-        void setText(String text) {
-            textArea.setText(text == null ? "" : text);
+        @Override
+        public void thinkClosed() {
+            dispatch(StreamMarkdownPanel.this::finishThink);
         }
     }
 
@@ -718,17 +564,35 @@ public class StreamMarkdownPanel extends JPanel {
     }
 
     private static class WidthTrackingHtmlPane extends JEditorPane {
-        WidthTrackingHtmlPane(String html) {
-            super("text/html", html);
+        private final PreferredSizeCache sizeCache = new PreferredSizeCache();
+        private int contentVersion;
+
+        WidthTrackingHtmlPane(HTMLDocument document) {
+            setContentType("text/html");
+            setDocument(document);
+        }
+
+        @Override
+        public void setDocument(Document document) {
+            contentVersion++;
+            super.setDocument(document);
         }
 
         @Override
         public Dimension getPreferredSize() {
             Container parent = getParent();
-            if (parent != null && parent.getWidth() > 0) {
-                setSize(new Dimension(parent.getWidth(), Integer.MAX_VALUE));
+            int width = parent != null ? parent.getWidth() : 0;
+            if (width <= 0) {
+                return super.getPreferredSize();
+            }
+            Dimension cached = sizeCache.get(contentVersion, width, getFont());
+            if (cached != null) {
+                return cached;
             }
-            return super.getPreferredSize();
+            setSize(new Dimension(width, Integer.MAX_VALUE));
+            Dimension size = super.getPreferredSize();
+            sizeCache.put(contentVersion, width, getFont(), size);
+            return size;
         }
     }
 }
@@ -6,6 +6,15 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class StreamMarkdownParser {
+    private static final String FENCE = "```";
+    private static final String THINK_OPEN = "<think>";
+    private static final String THINK_CLOSE = "</think>";
+    private static final String TOOL_OPEN = "<tool";
+    private static final String TOOL_CLOSE = "</tool>";
+    private static final String TOOL_CALL_CLOSE = "</tool_call>";
+    private static final int NO_MATCH = -1;
+    private static final int NEED_MORE = -2;
+
     private static final Pattern MATCHER_PATTERN = Pattern.compile(
             "<tool(?:_call)?\\s+name=\"([^\"]+)\"\\s*>(.*?)</tool(?:_call)?>"
                     + "|<tool(?:_call)?\\s+name=\"([^\"]+)\"\\s*>(.*)"
@@ -98,4 +107,427 @@ public class StreamMarkdownParser {
 
         return blocks;
     }
+
+    private final StringBuilder text = new StringBuilder();
+    private final List<Block> blocks = new ArrayList<>();
+    private final Listener listener;
+    private State state = State.TEXT;
+    private Block current;
+    private int pos;
+    private int emitted;
+    private MarkdownBlock.Type openerType;
+    private int headerStart = -1;
+    private int headerPhase;
+    private int headerPos;
+    private int nameStart;
+    private int nameEnd;
+    private boolean finished;
+
+    /**
+     * Incremental {@link #parse(String)}: after {@link #finish()}, {@link #getBlocks()} equals
+     * {@code parse(allFedText)}.
+     */
+    public StreamMarkdownParser(Listener listener) {
+        this.listener = listener;
+    }
+
+    public StreamMarkdownParser() {
+        this(null);
+    }
+
+    public void feed(CharSequence chunk) {
+        if (finished) {
+            throw new IllegalStateException("Parser already finished");
+        }
+        if (chunk == null || chunk.length() == 0) {
+            return;
+        }
+        text.append(chunk);
+        advance(false);
+    }
+
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        advance(true);
+        finished = true;
+        if (current != null) {
+            close(current.type == MarkdownBlock.Type.TEXT);
+        }
+    }
+
+    public List<MarkdownBlock> getBlocks() {
+        List<MarkdownBlock> result = new ArrayList<>(blocks.size());
+        for (Block block : blocks) {
+            result.add(block.toMarkdownBlock(text));
+        }
+        return result;
+    }
+
+    /**
+     * {@code [start0, end0, start1, end1, ...]} into the fed text.
+     */
+    public int[] getBlockRanges() {
+        int[] ranges = new int[blocks.size() * 2];
+        for (int i = 0; i < blocks.size(); i++) {
+            ranges[i * 2] = blocks.get(i).contentStart;
+            ranges[i * 2 + 1] = blocks.get(i).contentEnd;
+        }
+        return ranges;
+    }
+
+    private void advance(boolean eof) {
+        int len = text.length();
+        while (pos < len || (eof && state == State.CODE_LANG)) {
+            switch (state) {
+                case TEXT:
+                    if (!scanText(eof)) {
+                        return;
+                    }
+                    break;
+                case CODE_LANG:
+                    if (!scanLanguage(eof)) {
+                        return;
+                    }
+                    break;
+                case CODE:
+                    if (!scanContent(FENCE, null, eof)) {
+                        return;
+                    }
+                    break;
+                case THINK:
+                    if (!scanContent(THINK_CLOSE, null, eof)) {
+                        return;
+                    }
+                    break;
+                case TOOL:
+                    if (!scanContent(TOOL_CLOSE, TOOL_CALL_CLOSE, eof)) {
+                        return;
+                    }
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+    private boolean scanText(boolean eof) {
+        int len = text.length();
+        int i = pos;
+        while (i < len) {
+            char c = text.charAt(i);
+            if (c != '`' && c != '<') {
+                i++;
+                continue;
+            }
+            int end = c == '`' ? matchFence(i, eof) : matchTagOpener(i, eof);
+            if (end == NO_MATCH) {
+                i++;
+                continue;
+            }
+            appendText(i);
+            if (end == NEED_MORE) {
+                pos = i;
+                return false;
+            }
+            if (current != null) {
+                close(true);
+            }
+            if (openerType == MarkdownBlock.Type.CODE) {
+                open(MarkdownBlock.Type.CODE, end, null);
+                state = State.CODE_LANG;
+            } else if (openerType == MarkdownBlock.Type.THINK) {
+                open(MarkdownBlock.Type.THINK, end, null);
+                state = State.THINK;
+            } else {
+                open(MarkdownBlock.Type.TOOL, end, text.substring(nameStart, nameEnd));
+                state = State.TOOL;
+            }
+            pos = end;
+            return true;
+        }
+        appendText(len);
+        pos = len;
+        return false;
+    }
+
+    private void appendText(int end) {
+        if (end <= pos) {
+            return;
+        }
+        if (current == null) {
+            open(MarkdownBlock.Type.TEXT, pos, null);
+        }
+        append(end);
+    }
+
+    private boolean scanLanguage(boolean eof) {
+        int len = text.length();
+        int i = pos;
+        if (current.languageEnd < 0) {
+            while (i < len && isLanguageChar(text.charAt(i))) {
+                i++;
+            }
+            pos = i;
+            if (i == len && !eof) {
+                return false;
+            }
+            current.languageEnd = i;
+        }
+        while (i < len && text.charAt(i) == '\n') {
+            i++;
+        }
+        pos = i;
+        if (i == len && !eof) {
+            return false;
+        }
+        current.language = text.substring(current.contentStart, i).trim();
+        current.contentStart = i;
+        current.contentEnd = i;
+        emitted = i;
+        state = State.CODE;
+        if (listener != null) {
+            listener.blockOpened(current.id, current.type, current.language, null);
+        }
+        return true;
+    }
+
+    private boolean scanContent(String closer, String altCloser, boolean eof) {
+        int len = text.length();
+        char first = closer.charAt(0);
+        for (int i = pos; i < len; i++) {
+            if (text.charAt(i) != first) {
+                continue;
+            }
+            int end = matchLiteral(i, closer, eof);
+            if (end < 0 && altCloser != null) {
+                int altEnd = matchLiteral(i, altCloser, eof);
+                if (altEnd >= 0 || altEnd == NEED_MORE) {
+                    end = altEnd;
+                }
+            }
+            if (end == NO_MATCH) {
+                continue;
+            }
+            append(i);
+            if (end == NEED_MORE) {
+                pos = i;
+                return false;
+            }
+            close(true);
+            state = State.TEXT;
+            pos = end;
+            return true;
+        }
+        append(len);
+        pos = len;
+        return false;
+    }
+
+    private int matchLiteral(int index, String literal, boolean eof) {
+        int len = text.length();
+        int n = literal.length();
+        for (int k = 0; k < n; k++) {
+            if (index + k >= len) {
+                return eof ? NO_MATCH : NEED_MORE;
+            }
+            if (text.charAt(index + k) != literal.charAt(k)) {
+                return NO_MATCH;
+            }
+        }
+        return index + n;
+    }
+
+    private int matchFence(int index, boolean eof) {
+        openerType = MarkdownBlock.Type.CODE;
+        return matchLiteral(index, FENCE, eof);
+    }
+
+    private int matchTagOpener(int index, boolean eof) {
+        int think = matchLiteral(index, THINK_OPEN, eof);
+        if (think >= 0) {
+            openerType = MarkdownBlock.Type.THINK;
+            return think;
+        }
+        int tool = matchToolHeader(index, eof);
+        if (tool >= 0) {
+            openerType = MarkdownBlock.Type.TOOL;
+            return tool;
+        }
+        return think == NEED_MORE || tool == NEED_MORE ? NEED_MORE : NO_MATCH;
+    }
+
+    /**
+     * Matches {@code <tool(?:_call)?\s+name="([^"]+)"\s*>} across chunk boundaries.
+     */
+    private int matchToolHeader(int index, boolean eof) {
+        if (headerStart != index) {
+            headerStart = index;
+            headerPhase = 0;
+            headerPos = index;
+        }
+        int len = text.length();
+        while (headerPos < len) {
+            char c = text.charAt(headerPos);
+            switch (headerPhase) {
+                case 0:
+                    int literalEnd = matchLiteral(index, TOOL_OPEN, eof);
+                    if (literalEnd < 0) {
+                        return resetHeader(literalEnd);
+                    }
+                    headerPos = literalEnd;
+                    headerPhase = 1;
+                    continue;
+                case 1:
+                    if (c == '_') {
+                        int callEnd = matchLiteral(headerPos, "_call", eof);
+                        if (callEnd < 0) {
+                            return resetHeader(callEnd);
+                        }
+                        headerPos = callEnd;
+                        headerPhase = 2;
+                        continue;
+                    }
+                    if (!isRegexSpace(c)) {
+                        return resetHeader(NO_MATCH);
+                    }
+                    headerPhase = 3;
+                    headerPos++;
+                    continue;
+                case 2:
+                    if (!isRegexSpace(c)) {
+                        return resetHeader(NO_MATCH);
+                    }
+                    headerPhase = 3;
+                    headerPos++;
+                    continue;
+                case 3:
+                    if (isRegexSpace(c)) {
+                        headerPos++;
+                        continue;
+                    }
+                    int nameAttrEnd = matchLiteral(headerPos, "name=\"", eof);
+                    if (nameAttrEnd < 0) {
+                        return resetHeader(nameAttrEnd);
+                    }
+                    headerPos = nameAttrEnd;
+                    nameStart = nameAttrEnd;
+                    headerPhase = 4;
+                    continue;
+                case 4:
+                    if (c == '"') {
+                        if (headerPos == nameStart) {
+                            return resetHeader(NO_MATCH);
+                        }
+                        nameEnd = headerPos;
+                        headerPhase = 5;
+                    }
+                    headerPos++;
+                    continue;
+                case 5:
+                    if (isRegexSpace(c)) {
+                        headerPos++;
+                        continue;
+                    }
+                    if (c != '>') {
+                        return resetHeader(NO_MATCH);
+                    }
+                    int end = headerPos + 1;
+                    resetHeader(NO_MATCH);
+                    return end;
+                default:
+                    return resetHeader(NO_MATCH);
+            }
+        }
+        return eof ? resetHeader(NO_MATCH) : NEED_MORE;
+    }
+
+    private int resetHeader(int result) {
+        if (result != NEED_MORE) {
+            headerStart = -1;
+        }
+        return result;
+    }
+
+    private static boolean isRegexSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isLanguageChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '_' || c == '#' || c == '+' || c == '.' || c == '-';
+    }
+
+    private void open(MarkdownBlock.Type type, int contentStart, String toolName) {
+        current = new Block(blocks.size(), type, contentStart, toolName);
+        blocks.add(current);
+        emitted = contentStart;
+        if (listener != null && type != MarkdownBlock.Type.CODE) {
+            listener.blockOpened(current.id, type, null, toolName);
+        }
+    }
+
+    private void append(int end) {
+        if (end <= emitted) {
+            return;
+        }
+        current.contentEnd = end;
+        if (listener != null) {
+            listener.blockAppended(current.id, text.subSequence(emitted, end));
+        }
+        emitted = end;
+    }
+
+    private void close(boolean completed) {
+        Block block = current;
+        current = null;
+        block.completed = completed;
+        if (listener != null) {
+            listener.blockClosed(block.id, completed);
+        }
+    }
+
+    public interface Listener {
+        void blockOpened(int blockId, MarkdownBlock.Type type, String language, String toolName);
+
+        void blockAppended(int blockId, CharSequence text);
+
+        void blockClosed(int blockId, boolean completed);
+    }
+
+    private enum State {
+        TEXT,
+        CODE_LANG,
+        CODE,
+        THINK,
+        TOOL
+    }
+
+    private static final class Block {
+        private final int id;
+        private final MarkdownBlock.Type type;
+        private final String toolName;
+        private int contentStart;
+        private int contentEnd;
+        private int languageEnd = -1;
+        private String language;
+        private boolean completed;
+
+        private Block(int id, MarkdownBlock.Type type, int contentStart, String toolName) {
+            this.id = id;
+            this.type = type;
+            this.contentStart = contentStart;
+            this.contentEnd = contentStart;
+            this.toolName = toolName;
+        }
+
+        private MarkdownBlock toMarkdownBlock(CharSequence text) {
+            String content = text.subSequence(contentStart, contentEnd).toString();
+            if (type == MarkdownBlock.Type.CODE) {
+                return new MarkdownBlock(type, content, language == null ? "" : language, null, completed);
+            }
+            return new MarkdownBlock(type, content, null, toolName, completed);
+        }
+    }
 }
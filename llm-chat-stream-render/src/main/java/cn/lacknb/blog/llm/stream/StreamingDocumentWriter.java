@@ -0,0 +1,55 @@
+package cn.lacknb.blog.llm.stream;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.command.undo.UndoUtil;
+import com.intellij.openapi.editor.Document;
+import com.intellij.util.DocumentUtil;
+
+/**
+ * Writes streamed code into code block documents without undo. Bulk mode is only used to replace
+ * a document, since it makes the editor recompute everything.
+ */
+final class StreamingDocumentWriter {
+    private static long writeNanos;
+    private static long linesWritten;
+    private static long writes;
+
+    private StreamingDocumentWriter() {
+    }
+
+    static void replace(Document document, CharSequence text) {
+        UndoUtil.disableUndoFor(document);
+        write(document, text, () -> DocumentUtil.executeInBulk(document, true, () -> document.setText(text)));
+    }
+
+    static void append(Document document, CharSequence text) {
+        write(document, text, () -> document.insertString(document.getTextLength(), text));
+    }
+
+    static String describe() {
+        if (linesWritten == 0) {
+            return writes + " document writes";
+        }
+        double msPerThousandLines = writeNanos / 1_000_000.0 * 1000 / linesWritten;
+        return writes + " document writes, " + String.format("%.2f", msPerThousandLines)
+                + " ms write action per 1000 lines";
+    }
+
+    private static void write(Document document, CharSequence text, Runnable change) {
+        long start = System.nanoTime();
+        ApplicationManager.getApplication().runWriteAction(change);
+        writeNanos += System.nanoTime() - start;
+        linesWritten += countLines(text);
+        writes++;
+    }
+
+    private static int countLines(CharSequence text) {
+        int lines = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+}
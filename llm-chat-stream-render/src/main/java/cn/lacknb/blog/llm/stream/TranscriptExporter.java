@@ -0,0 +1,220 @@
+package cn.lacknb.blog.llm.stream;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes a conversation to Markdown or HTML without building the transcript in memory.
+ */
+final class TranscriptExporter {
+    enum Format {
+        MARKDOWN,
+        HTML;
+
+        static Format forFile(File file) {
+            String name = file.getName().toLowerCase(Locale.ROOT);
+            return name.endsWith(".html") || name.endsWith(".htm") ? HTML : MARKDOWN;
+        }
+    }
+
+    private static final int SLICE_CHARS = 8192;
+    private static final String EXPORT_STYLE = "body{max-width:60em;margin:1em auto;padding:0 1em;font-family:sans-serif;}" +
+            ".message{margin:0 0 1.2em 0;}" +
+            ".role{font-weight:bold;margin:0 0 0.3em 0;}" +
+            ".user .content{white-space:pre-wrap;background:#E3F2FD;padding:0.5em 0.7em;}" +
+            "pre{background:#F5F5F5;padding:0.5em 0.7em;overflow-x:auto;}" +
+            ".think{color:#808080;margin:0.4em 0;}" +
+            ".tool-name{font-family:monospace;color:#808080;}";
+
+    private final MarkdownRenderer renderer = new MarkdownRenderer();
+    private final StringBuilder pendingText = new StringBuilder();
+
+    void export(List<ChatMessage> messages, Format format, Writer out, ProgressIndicator indicator) throws IOException {
+        if (format == Format.HTML) {
+            out.write("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>Chat transcript</title><style>");
+            out.write(MarkdownRenderer.STYLE);
+            out.write(EXPORT_STYLE);
+            out.write("</style></head><body>\n");
+        } else {
+            out.write("# Chat transcript\n\n");
+        }
+        for (int i = 0; i < messages.size(); i++) {
+            indicator.checkCanceled();
+            indicator.setFraction(i / (double) messages.size());
+            ChatMessage message = messages.get(i);
+            if (format == Format.HTML) {
+                writeHtml(message, out);
+            } else {
+                writeMarkdown(message, out);
+            }
+        }
+        if (format == Format.HTML) {
+            out.write("</body></html>\n");
+        }
+    }
+
+    private void writeMarkdown(ChatMessage message, Writer out) throws IOException {
+        CharSequence content = message.getContentText();
+        out.write("## ");
+        out.write(roleTitle(message.getRole()));
+        out.write("\n\n");
+        for (int start = 0; start < content.length(); start += SLICE_CHARS) {
+            out.append(content, start, Math.min(start + SLICE_CHARS, content.length()));
+        }
+        out.write(endsWithNewline(content) ? "\n" : "\n\n");
+    }
+
+    private void writeHtml(ChatMessage message, Writer out) throws IOException {
+        CharSequence content = message.getContentText();
+        String role = message.getRole();
+        out.write("<div class=\"message ");
+        out.write(escape(role));
+        out.write("\"><div class=\"role\">");
+        out.write(roleTitle(role));
+        out.write("</div><div class=\"content\">");
+        if ("assistant".equals(role)) {
+            StreamMarkdownParser parser = new StreamMarkdownParser(new HtmlBlockWriter(out));
+            try {
+                for (int start = 0; start < content.length(); start += SLICE_CHARS) {
+                    parser.feed(content.subSequence(start, Math.min(start + SLICE_CHARS, content.length())));
+                }
+                parser.finish();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        } else {
+            for (int start = 0; start < content.length(); start += SLICE_CHARS) {
+                writeEscaped(content.subSequence(start, Math.min(start + SLICE_CHARS, content.length())), out);
+            }
+        }
+        out.write("</div></div>\n");
+    }
+
+    private static String roleTitle(String role) {
+        if ("user".equals(role)) {
+            return "User";
+        }
+        if ("assistant".equals(role)) {
+            return "Assistant";
+        }
+        return role == null || role.isEmpty() ? "Message" : escape(role);
+    }
+
+    private static boolean endsWithNewline(CharSequence text) {
+        return text.length() > 0 && text.charAt(text.length() - 1) == '\n';
+    }
+
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            appendEscaped(text.charAt(i), escaped);
+        }
+        return escaped.toString();
+    }
+
+    private static void writeEscaped(CharSequence text, Writer out) throws IOException {
+        StringBuilder escaped = new StringBuilder(text.length() + 16);
+        for (int i = 0; i < text.length(); i++) {
+            appendEscaped(text.charAt(i), escaped);
+        }
+        out.append(escaped);
+    }
+
+    private static void appendEscaped(char c, StringBuilder out) {
+        switch (c) {
+            case '&':
+                out.append("&amp;");
+                break;
+            case '<':
+                out.append("&lt;");
+                break;
+            case '>':
+                out.append("&gt;");
+                break;
+            case '"':
+                out.append("&quot;");
+                break;
+            default:
+                out.append(c);
+        }
+    }
+
+    private final class HtmlBlockWriter implements StreamMarkdownParser.Listener {
+        private final Writer out;
+        private MarkdownBlock.Type type;
+
+        HtmlBlockWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void blockOpened(int blockId, MarkdownBlock.Type type, String language, String toolName) {
+            this.type = type;
+            pendingText.setLength(0);
+            try {
+                switch (type) {
+                    case CODE:
+                        out.write(language == null || language.isEmpty()
+                                ? "<pre><code>"
+                                : "<pre><code class=\"language-" + escape(language) + "\">");
+                        break;
+                    case THINK:
+                        out.write("<details class=\"think\"><summary>Thinking</summary>");
+                        break;
+                    case TOOL:
+                        out.write("<div class=\"tool\"><div class=\"tool-name\">" + escape(toolName == null ? "tool" : toolName) + "</div><pre>");
+                        break;
+                    default:
+                        break;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void blockAppended(int blockId, CharSequence text) {
+            try {
+                if (type == MarkdownBlock.Type.TEXT || type == MarkdownBlock.Type.THINK) {
+                    pendingText.append(text);
+                } else {
+                    writeEscaped(text, out);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void blockClosed(int blockId, boolean completed) {
+            try {
+                switch (type) {
+                    case TEXT:
+                        out.write(renderer.renderBody(pendingText.toString()));
+                        break;
+                    case THINK:
+                        out.write(renderer.renderBody(pendingText.toString()));
+                        out.write("</details>");
+                        break;
+                    case CODE:
+                        out.write("</code></pre>");
+                        break;
+                    case TOOL:
+                        out.write("</pre></div>");
+                        break;
+                    default:
+                        break;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            pendingText.setLength(0);
+        }
+    }
+}
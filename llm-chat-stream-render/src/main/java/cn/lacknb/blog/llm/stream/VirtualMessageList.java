@@ -0,0 +1,298 @@
+package cn.lacknb.blog.llm.stream;
+
+import javax.swing.JComponent;
+import javax.swing.JPanel;
+import javax.swing.JViewport;
+import javax.swing.Scrollable;
+import javax.swing.SwingUtilities;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chat transcript that only keeps rows near the viewport as components. Offscreen rows keep the
+ * heights they were measured at for their last few widths. Components of rows that leave the
+ * viewport are recycled by kind, or parked for rows without one; pinned rows stay live.
+ */
+final class VirtualMessageList extends JPanel implements Scrollable {
+    private static final int OVERSCAN = 600;
+    private static final int ESTIMATED_ROW_HEIGHT = 80;
+    private static final int MAX_RECYCLED_PER_KIND = 8;
+    private static final int MAX_PARKED = 8;
+    private static final int WIDTHS_PER_ROW = 4;
+
+    private final List<Row> rows = new ArrayList<>();
+    private final Map<String, ArrayDeque<JComponent>> recycled = new HashMap<>();
+    private final ArrayDeque<Row> parked = new ArrayDeque<>();
+    private JViewport viewport;
+    private boolean updateScheduled;
+    private boolean revalidateScheduled;
+
+    abstract static class Row {
+        private JComponent component;
+        private boolean parked;
+        private boolean pinned;
+        private final int[] measuredWidths = new int[WIDTHS_PER_ROW];
+        private final int[] measuredHeights = new int[WIDTHS_PER_ROW];
+        private int measuredCount;
+        private int nextSlot;
+
+        abstract JComponent create();
+
+        String recycleKind() {
+            return null;
+        }
+
+        void bind(JComponent component) {
+        }
+
+        /**
+         * Called when the row's component is recycled or, for a parked one, dropped.
+         */
+        void released() {
+        }
+
+        JComponent getComponent() {
+            return component;
+        }
+
+        private int heightAt(int width) {
+            int nearest = -1;
+            for (int i = 0; i < measuredCount; i++) {
+                if (measuredWidths[i] == width) {
+                    return measuredHeights[i];
+                }
+                if (nearest < 0 || Math.abs(measuredWidths[i] - width) < Math.abs(measuredWidths[nearest] - width)) {
+                    nearest = i;
+                }
+            }
+            if (nearest < 0) {
+                return ESTIMATED_ROW_HEIGHT;
+            }
+            // Wrapped text grows about in inverse proportion to the width.
+            return (int) ((long) measuredHeights[nearest] * measuredWidths[nearest] / Math.max(width, 1));
+        }
+
+        private void setHeight(int width, int height) {
+            for (int i = 0; i < measuredCount; i++) {
+                if (measuredWidths[i] == width) {
+                    if (measuredHeights[i] != height) {
+                        // The content changed, so heights measured at other widths are stale.
+                        measuredWidths[0] = width;
+                        measuredHeights[0] = height;
+                        measuredCount = 1;
+                        nextSlot = 1;
+                    }
+                    return;
+                }
+            }
+            measuredWidths[nextSlot] = width;
+            measuredHeights[nextSlot] = height;
+            measuredCount = Math.max(measuredCount, nextSlot + 1);
+            nextSlot = (nextSlot + 1) % WIDTHS_PER_ROW;
+        }
+
+        private boolean isLive() {
+            return component != null && !parked;
+        }
+    }
+
+    VirtualMessageList() {
+        super(null);
+    }
+
+    void install(JViewport viewport) {
+        this.viewport = viewport;
+        viewport.addChangeListener(e -> scheduleVisibleRowsUpdate());
+    }
+
+    void addRow(Row row) {
+        rows.add(row);
+        materialize(row);
+        revalidate();
+        repaint();
+    }
+
+    void setPinned(Row row, boolean pinned) {
+        row.pinned = pinned;
+        if (!pinned) {
+            scheduleVisibleRowsUpdate();
+        }
+    }
+
+    void clear() {
+        for (Row row : rows) {
+            if (row.component != null) {
+                row.component = null;
+                row.parked = false;
+                row.released();
+            }
+        }
+        rows.clear();
+        recycled.clear();
+        parked.clear();
+        removeAll();
+        revalidate();
+        repaint();
+    }
+
+    int getLiveRowCount() {
+        return getComponentCount();
+    }
+
+    List<Row> getRows() {
+        return Collections.unmodifiableList(rows);
+    }
+
+    int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public void doLayout() {
+        int width = getWidth();
+        int y = 0;
+        for (Row row : rows) {
+            if (row.isLive()) {
+                JComponent component = row.component;
+                // Width-tracking children size themselves from the row width, so set it first.
+                component.setBounds(0, y, width, row.heightAt(width));
+                row.setHeight(width, component.getPreferredSize().height);
+                component.setBounds(0, y, width, row.heightAt(width));
+            }
+            y += row.heightAt(width);
+        }
+        // Only after rows were created or resized; getPreferredSize measures the others.
+        if (y != getHeight() && !revalidateScheduled) {
+            revalidateScheduled = true;
+            SwingUtilities.invokeLater(() -> {
+                revalidateScheduled = false;
+                revalidate();
+            });
+        }
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        int width = getWidth();
+        int height = 0;
+        for (Row row : rows) {
+            if (row.isLive() && row.component.getWidth() == width) {
+                row.setHeight(width, row.component.getPreferredSize().height);
+            }
+            height += row.heightAt(width);
+        }
+        return new Dimension(width, height);
+    }
+
+    private void scheduleVisibleRowsUpdate() {
+        if (updateScheduled) {
+            return;
+        }
+        updateScheduled = true;
+        SwingUtilities.invokeLater(() -> {
+            updateScheduled = false;
+            updateVisibleRows();
+        });
+    }
+
+    private void updateVisibleRows() {
+        if (viewport == null) {
+            return;
+        }
+        Rectangle view = viewport.getViewRect();
+        int width = getWidth();
+        int top = view.y - OVERSCAN;
+        int bottom = view.y + view.height + OVERSCAN;
+        boolean changed = false;
+        int y = 0;
+        for (Row row : rows) {
+            int height = row.heightAt(width);
+            boolean near = y + height >= top && y <= bottom;
+            if ((near || row.pinned) && !row.isLive()) {
+                materialize(row);
+                changed = true;
+            } else if (!near && !row.pinned && row.isLive()) {
+                release(row);
+                changed = true;
+            }
+            y += height;
+        }
+        if (changed) {
+            revalidate();
+            repaint();
+        }
+    }
+
+    private void materialize(Row row) {
+        if (row.parked) {
+            parked.remove(row);
+            row.parked = false;
+            add(row.component);
+            return;
+        }
+        String kind = row.recycleKind();
+        ArrayDeque<JComponent> pool = kind == null ? null : recycled.get(kind);
+        JComponent component = pool == null ? null : pool.pollFirst();
+        if (component != null) {
+            row.bind(component);
+        } else {
+            component = row.create();
+        }
+        row.component = component;
+        add(component);
+    }
+
+    private void release(Row row) {
+        JComponent component = row.component;
+        remove(component);
+        String kind = row.recycleKind();
+        if (kind == null) {
+            row.parked = true;
+            parked.addLast(row);
+            if (parked.size() > MAX_PARKED) {
+                Row evicted = parked.pollFirst();
+                evicted.component = null;
+                evicted.parked = false;
+                evicted.released();
+            }
+            return;
+        }
+        row.component = null;
+        row.released();
+        ArrayDeque<JComponent> pool = recycled.computeIfAbsent(kind, k -> new ArrayDeque<>());
+        if (pool.size() < MAX_RECYCLED_PER_KIND) {
+            pool.addLast(component);
+        }
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return 10;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return 10;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return true;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return false;
+    }
+}
@@ -0,0 +1,193 @@
+package cn.lacknb.blog.llm.stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Allocation ceilings for the per-token paths of a streamed answer. A synthetic response is split
+ * into tokens and driven through each path; the bytes the thread allocates per token must stay
+ * within the path's ceiling plus {@link #TOLERANCE}. The ceilings leave room over what JDK 17
+ * measured, as JDK 11 and other collectors allocate a little differently. Skipped on JVMs that do
+ * not count allocated bytes per thread.
+ * <p>
+ * A change that lowers a path's allocation should lower its ceiling too.
+ */
+class AllocationBudgetTest {
+    private static final double TOLERANCE = 0.5;
+    private static final int WARMUP_ROUNDS = 30;
+    private static final int MEASURED_ROUNDS = 60;
+    private static final int TOKEN_CHARS = 4;
+    private static final int SECTIONS = 16;
+
+    // JDK 17 measured 4947, 12, 4, 13 and 9 bytes per token.
+    private static final long SSE_DECODE_CEILING = 6000;
+    private static final long RESPONSE_BUFFER_CEILING = 24;
+    private static final long DELIMITER_SCANNER_CEILING = 16;
+    private static final long STREAM_PARSER_CEILING = 24;
+    private static final long FULL_PARSE_CEILING = 24;
+
+    private static final String RESPONSE = sampleResponse();
+    private static final List<String> TOKENS = tokenize(RESPONSE);
+
+    private com.sun.management.ThreadMXBean threads;
+
+    @BeforeEach
+    void setUp() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean, "no per-thread allocation counter");
+        threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled(),
+                "per-thread allocation counting is off");
+    }
+
+    @Test
+    void sseDecode() {
+        List<String> lines = new ArrayList<>(TOKENS.size());
+        for (String token : TOKENS) {
+            lines.add(sseLine(token));
+        }
+        assertWithinBudget(SSE_DECODE_CEILING, () -> {
+            ResponseBuffer answer = new ResponseBuffer();
+            for (String line : lines) {
+                SseChunkDecoder.Chunk chunk = SseChunkDecoder.decode(SseChunkDecoder.data(line));
+                answer.append(chunk.content);
+            }
+        });
+    }
+
+    @Test
+    void responseBuffer() {
+        assertWithinBudget(RESPONSE_BUFFER_CEILING, () -> {
+            ResponseBuffer answer = new ResponseBuffer();
+            for (String token : TOKENS) {
+                answer.append(token);
+            }
+            answer.seal();
+        });
+    }
+
+    @Test
+    void delimiterScanner() {
+        assertWithinBudget(DELIMITER_SCANNER_CEILING, () -> {
+            StreamDelimiterScanner scanner = new StreamDelimiterScanner(new NullSink());
+            for (String token : TOKENS) {
+                scanner.feed(token);
+            }
+            scanner.finish();
+        });
+    }
+
+    @Test
+    void streamParser() {
+        assertWithinBudget(STREAM_PARSER_CEILING, () -> {
+            StreamMarkdownParser parser = new StreamMarkdownParser();
+            for (String token : TOKENS) {
+                parser.feed(token);
+            }
+            parser.finish();
+        });
+    }
+
+    @Test
+    void fullParse() {
+        assertWithinBudget(FULL_PARSE_CEILING, () -> StreamMarkdownParser.parse(RESPONSE));
+    }
+
+    private void assertWithinBudget(long ceiling, Runnable stream) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            stream.run();
+        }
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            stream.run();
+        }
+        long perToken = (threads.getThreadAllocatedBytes(threadId) - allocatedBefore) / ((long) MEASURED_ROUNDS * TOKENS.size());
+        long limit = Math.round(ceiling * (1 + TOLERANCE));
+        assertTrue(perToken <= limit, perToken + " B/token, ceiling " + ceiling + ", limit " + limit);
+    }
+
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>(text.length() / TOKEN_CHARS + 1);
+        for (int i = 0; i < text.length(); i += TOKEN_CHARS) {
+            tokens.add(text.substring(i, Math.min(i + TOKEN_CHARS, text.length())));
+        }
+        return tokens;
+    }
+
+    private static String sseLine(String token) {
+        StringBuilder escaped = new StringBuilder();
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c == '\n') {
+                escaped.append("\\n");
+            } else {
+                escaped.append(c);
+            }
+        }
+        return "data: {\"id\":\"chatcmpl-1\",\"object\":\"chat.completion.chunk\",\"created\":1700000000,"
+                + "\"model\":\"gpt-4o-mini\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + escaped
+                + "\"},\"finish_reason\":null}]}";
+    }
+
+    private static String sampleResponse() {
+        StringBuilder markdown = new StringBuilder("<think>\nThe user wants a loop; keep it short.\n</think>\n");
+        for (int i = 0; i < SECTIONS; i++) {
+            markdown.append("## Step ").append(i + 1).append("\n\n")
+                    .append("The **parser** reads each chunk and keeps `state` between calls, so a ")
+                    .append("response streamed in small pieces is parsed *once*.\n\n")
+                    .append("- first item with `code`\n")
+                    .append("- second item\n\n")
+                    .append("```java\n")
+                    .append("for (int i = 0; i < n; i++) {\n")
+                    .append("    total += values[i];\n")
+                    .append("}\n")
+                    .append("```\n\n");
+        }
+        return markdown.toString();
+    }
+
+    private static final class NullSink implements StreamDelimiterScanner.Sink {
+        @Override
+        public void text(CharSequence text) {
+        }
+
+        @Override
+        public void codeOpened() {
+        }
+
+        @Override
+        public void codeLanguage(String language) {
+        }
+
+        @Override
+        public void code(CharSequence text) {
+        }
+
+        @Override
+        public void codeClosed() {
+        }
+
+        @Override
+        public void thinkOpened() {
+        }
+
+        @Override
+        public void think(CharSequence text) {
+        }
+
+        @Override
+        public void thinkClosed() {
+        }
+    }
+}
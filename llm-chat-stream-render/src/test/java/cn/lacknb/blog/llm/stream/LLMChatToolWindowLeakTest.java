@@ -0,0 +1,107 @@
+package cn.lacknb.blog.llm.stream;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.testFramework.ServiceContainerUtil;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Opens and closes chat windows and method action prefetches while their answers are streaming,
+ * then checks that no stream, timer, stream thread, editor or HTTP thread outlives them.
+ */
+public class LLMChatToolWindowLeakTest extends BasePlatformTestCase {
+    private static final int ROUNDS = 12;
+    private static final String ANSWER = "Some text before the code.\n\n```java\n"
+            + "int total = 0;\n".repeat(40) + "```\n\nAnd a closing paragraph.\n";
+
+    private SseTestServer server;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new SseTestServer(400, 4);
+        server.setAnswer(ANSWER);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            server.close();
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    public void testClosingWindowsAndPopupsLeavesNothingRunning() {
+        Set<Thread> threadsBefore = streamThreads();
+        int editorsBefore = EditorFactory.getInstance().getAllEditors().length;
+        Disposable serviceParent = Disposer.newDisposable("chat service");
+        ProjectChatService service = new ProjectChatService(server.createChatService());
+        ServiceContainerUtil.replaceService(getProject(), ProjectChatService.class, service, serviceParent);
+        OpenAIChatService chatService = ProjectChatService.getInstance(getProject());
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                LLMChatToolWindow window = new LLMChatToolWindow(getProject());
+                Disposer.register(getTestRootDisposable(), window);
+                window.getContent().setSize(600, 800);
+                window.submitPrompt("Explain", false);
+                // What the method action popup starts while it is open.
+                SpeculativeRequest speculative = SpeculativeRequest.start(getProject(), "Optimize");
+                PlatformTestUtil.waitWithEventsDispatching("Streams did not start",
+                        () -> chatService.getActiveStreamCount() == 2, 10);
+                // The popup closes before the clicked action claims the request.
+                speculative.cancelIfUnclaimedLater();
+                assertTrue(speculative.isCancelTimerRunning());
+                dispatchFor(100);
+                if (round % 2 == 0 && speculative.claim("Optimize")) {
+                    window.adoptSpeculative(speculative);
+                    dispatchFor(100);
+                } else {
+                    speculative.cancel();
+                }
+                Disposer.dispose(window);
+                assertTrue(Disposer.isDisposed(window));
+                assertFalse("Frame timer outlived its window", window.getFrameScheduler().isRunning());
+                assertFalse("Cancel timer outlived its request", speculative.isCancelTimerRunning());
+            }
+            PlatformTestUtil.waitWithEventsDispatching("Streams outlived their windows",
+                    () -> chatService.getActiveStreamCount() == 0 && newThreads(threadsBefore, "openai-stream-thread").isEmpty(), 10);
+            assertEquals("Editors outlived their windows", editorsBefore, EditorFactory.getInstance().getAllEditors().length);
+        } finally {
+            Disposer.dispose(serviceParent);
+            Disposer.dispose(service);
+        }
+        PlatformTestUtil.waitWithEventsDispatching("HTTP threads outlived the service",
+                () -> newThreads(threadsBefore, "openai-http-thread").isEmpty(), 10);
+    }
+
+    private static void dispatchFor(long millis) {
+        long end = System.nanoTime() + millis * 1_000_000L;
+        PlatformTestUtil.waitWithEventsDispatching("", () -> System.nanoTime() >= end, 10);
+    }
+
+    private static Set<Thread> streamThreads() {
+        Set<Thread> threads = new HashSet<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("openai-")) {
+                threads.add(thread);
+            }
+        }
+        return threads;
+    }
+
+    private static Set<Thread> newThreads(Set<Thread> before, String name) {
+        Set<Thread> threads = new HashSet<>();
+        for (Thread thread : streamThreads()) {
+            if (thread.getName().equals(name) && thread.isAlive() && !before.contains(thread)) {
+                threads.add(thread);
+            }
+        }
+        return threads;
+    }
+}
@@ -0,0 +1,92 @@
+package cn.lacknb.blog.llm.stream;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParagraphFreezerTest {
+    private static final String[] PARAGRAPHS = {
+            "A paragraph with **bold** and `code[0]`.\n",
+            "Two lines\nof one paragraph.\n",
+            "- item one\n- item two\n",
+            "1. first\n2. second\n",
+            "    indented code\n",
+            "> quoted\n",
+            "~~~\nfenced\n\nwith a blank line\n~~~\n",
+            "~~~~ text\nshort ~~~ fence inside\n\n~~~\n~~~~\n",
+            "A [link](https://example.com) inline.\n",
+            "See [the docs][docs] for more.\n",
+            "[docs]: https://example.com/docs\n",
+            "Shortcut [docs] reference.\n",
+    };
+
+    private final MarkdownRenderer renderer = new MarkdownRenderer();
+
+    @Test
+    void frozenPrefixesRenderLikeTheWholeText() {
+        Random random = new Random(11);
+        for (int round = 0; round < 500; round++) {
+            StringBuilder text = new StringBuilder();
+            int paragraphs = 1 + random.nextInt(6);
+            for (int i = 0; i < paragraphs; i++) {
+                if (i > 0) {
+                    text.append('\n');
+                }
+                text.append(PARAGRAPHS[random.nextInt(PARAGRAPHS.length)]);
+            }
+            assertStreamedPiecesRenderLikeWhole(text.toString(), random);
+        }
+    }
+
+    @Test
+    void doesNotCutInsideTildeFence() {
+        List<String> pieces = stream("Intro.\n\n~~~\na\n\nb\n~~~\n\nAfter.\n", 1);
+        assertEquals("Intro.\n\n", pieces.get(0));
+        assertEquals("~~~\na\n\nb\n~~~\n\n", pieces.get(1));
+    }
+
+    @Test
+    void stopsCuttingAtReferenceLinks() {
+        List<String> pieces = stream("Intro.\n\nSee [docs][d].\n\nMore.\n\n[d]: https://example.com\n", 3);
+        assertEquals(2, pieces.size());
+        assertEquals("Intro.\n\n", pieces.get(0));
+        assertTrue(pieces.get(1).startsWith("See [docs][d]."));
+    }
+
+    private void assertStreamedPiecesRenderLikeWhole(String text, Random random) {
+        List<String> pieces = stream(text, 1 + random.nextInt(6));
+        StringBuilder html = new StringBuilder();
+        for (String piece : pieces) {
+            html.append(renderer.renderBody(piece));
+        }
+        assertEquals(renderer.renderBody(text), html.toString(), () -> "pieces " + pieces);
+    }
+
+    /**
+     * Streams {@code text} in chunks the way a text block does and returns the frozen pieces
+     * followed by the remaining tail.
+     */
+    private static List<String> stream(String text, int chunkChars) {
+        ParagraphFreezer freezer = new ParagraphFreezer();
+        StringBuilder buffer = new StringBuilder();
+        List<String> pieces = new ArrayList<>();
+        for (int start = 0; start < text.length(); start += chunkChars) {
+            buffer.append(text, start, Math.min(text.length(), start + chunkChars));
+            int split = freezer.findSplit(buffer);
+            if (split > 0) {
+                pieces.add(buffer.substring(0, split));
+                buffer.delete(0, split);
+                freezer.onFrozen(split);
+            }
+        }
+        if (buffer.length() > 0) {
+            pieces.add(buffer.toString());
+        }
+        return pieces;
+    }
+}
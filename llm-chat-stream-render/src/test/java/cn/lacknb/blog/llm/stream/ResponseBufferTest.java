@@ -0,0 +1,106 @@
+package cn.lacknb.blog.llm.stream;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseBufferTest {
+    private static final int RESPONSES = 40;
+    private static final int RESPONSE_CHARS = 256 * 1024;
+
+    @Test
+    void viewsMatchTheAppendedText() {
+        Random random = new Random(5);
+        ResponseBuffer buffer = new ResponseBuffer();
+        StringBuilder expected = new StringBuilder();
+        while (expected.length() < 20_000) {
+            String delta = randomText(random, 1 + random.nextInt(700));
+            buffer.append(delta);
+            expected.append(delta);
+            int start = random.nextInt(expected.length() + 1);
+            int end = start + random.nextInt(expected.length() - start + 1);
+            assertEquals(expected.substring(start, end), buffer.subSequence(start, end).toString());
+        }
+        buffer.seal();
+        assertEquals(expected.toString(), buffer.toString());
+        CharSequence slice = buffer.subSequence(4000, 9000).subSequence(90, 200);
+        assertEquals(expected.substring(4090, 4200), slice.toString());
+        assertEquals(expected.charAt(4100), slice.charAt(10));
+    }
+
+    @Test
+    void appendAfterSealIsIgnored() {
+        ResponseBuffer buffer = new ResponseBuffer();
+        buffer.append("done");
+        buffer.seal();
+        buffer.append(" and more");
+        assertEquals("done", buffer.toString());
+    }
+
+    @Test
+    void historySharesTheBuffer() {
+        ResponseBuffer buffer = new ResponseBuffer();
+        ChatMessage message = new ChatMessage("assistant", buffer);
+        buffer.append("streamed");
+        assertSame(buffer, message.getContentText());
+        assertEquals("streamed", message.getContent());
+    }
+
+    /**
+     * Measures the heap that sealed ASCII responses actually retain, which should be about one byte
+     * per char and close to what {@link ResponseBuffer#getRetainedBytes()} reports.
+     */
+    @Test
+    void sealedAsciiResponsesRetainAboutOneBytePerChar() {
+        Random random = new Random(3);
+        String[] deltas = new String[64];
+        for (int i = 0; i < deltas.length; i++) {
+            deltas[i] = randomText(random, 1 + random.nextInt(40));
+        }
+        long before = usedHeap();
+        List<ResponseBuffer> responses = new ArrayList<>();
+        long reported = 0;
+        for (int r = 0; r < RESPONSES; r++) {
+            ResponseBuffer buffer = new ResponseBuffer();
+            int i = 0;
+            while (buffer.length() < RESPONSE_CHARS) {
+                buffer.append(deltas[i++ % deltas.length]);
+            }
+            buffer.seal();
+            responses.add(buffer);
+            reported += buffer.getRetainedBytes();
+        }
+        long retained = usedHeap() - before;
+        long chars = (long) RESPONSES * RESPONSE_CHARS;
+        assertEquals(RESPONSES, responses.size());
+        assertTrue(reported < chars * 11 / 10, "reported " + reported + " bytes for " + chars + " chars");
+        assertTrue(retained < chars * 13 / 10, "retained " + retained + " bytes for " + chars + " chars");
+        assertTrue(Math.abs(retained - reported) < chars / 5,
+                "retained " + retained + " bytes, reported " + reported);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            int c = random.nextInt(40);
+            text.append(c == 0 ? '\n' : c < 6 ? ' ' : (char) ('a' + c % 26));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,109 @@
+package cn.lacknb.blog.llm.stream;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Local chat completions endpoint that streams a fixed answer as server-sent events, one token of
+ * {@code tokenChars} chars per event at {@code tokensPerSecond} (0 streams as fast as possible).
+ * Point a {@link ProjectChatService} at it to run the real client against a known stream.
+ */
+final class SseTestServer implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "sse-test-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final int tokensPerSecond;
+    private final int tokenChars;
+    private final AtomicInteger completed = new AtomicInteger();
+    private volatile String answer = "";
+
+    SseTestServer(int tokensPerSecond, int tokenChars) throws IOException {
+        this.tokensPerSecond = tokensPerSecond;
+        this.tokenChars = tokenChars;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/chat/completions", this::stream);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    void setAnswer(String answer) {
+        this.answer = answer;
+    }
+
+    /**
+     * Number of answers streamed to the end.
+     */
+    int getCompleted() {
+        return completed.get();
+    }
+
+    OpenAIChatService createChatService() {
+        return new OpenAIChatService("http://127.0.0.1:" + server.getAddress().getPort(), "test-model", null, "test-key");
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void stream(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            in.readAllBytes();
+        }
+        String text = answer;
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            long start = System.nanoTime();
+            int tokens = 0;
+            for (int i = 0; i < text.length(); i += tokenChars) {
+                if (tokensPerSecond > 0) {
+                    long wait = start + tokens * 1_000_000_000L / tokensPerSecond - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                write(out, event(text.substring(i, Math.min(i + tokenChars, text.length()))));
+                tokens++;
+            }
+            write(out, "[DONE]");
+            completed.incrementAndGet();
+        } catch (IOException e) {
+            // The client cancelled the stream.
+        }
+    }
+
+    private static String event(String token) {
+        JsonObject delta = new JsonObject();
+        delta.addProperty("content", token);
+        JsonObject choice = new JsonObject();
+        choice.add("delta", delta);
+        JsonArray choices = new JsonArray();
+        choices.add(choice);
+        JsonObject chunk = new JsonObject();
+        chunk.add("choices", choices);
+        return chunk.toString();
+    }
+
+    private static void write(OutputStream out, String data) throws IOException {
+        out.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+}
@@ -0,0 +1,99 @@
+package cn.lacknb.blog.llm.stream;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StreamMarkdownParserTest {
+    private static final String[] SAMPLES = {
+            "",
+            "plain text only",
+            "before\n```java\nint x = 1;\n```\nafter",
+            "```\nno language\n```",
+            "```python",
+            "```js\nunclosed code",
+            "<think>reasoning</think>answer",
+            "<think>never closed",
+            "<tool name=\"search\">query</tool>done",
+            "<tool_call name=\"run\">ls -la</tool_call>",
+            "<tool name=\"open\">still running",
+            "a `inline` b `` c ``` d",
+            "< not a tag <thin <tool x> </think> ``",
+            "## Title\n\n- item\n\n```kotlin\nval a = \"```\"\n```\n<think>x</think>\n```\n```",
+    };
+    private static final String[] PIECES = {
+            "```", "```java\n", "<think>", "</think>", "<tool name=\"t\">", "</tool>",
+            "<tool_call name=\"c\">", "</tool_call>", "`", "<", ">", "\n", "text ", "a", " ",
+    };
+
+    @Test
+    void streamedParseMatchesOneShotParseForSamples() {
+        Random random = new Random(42);
+        for (String sample : SAMPLES) {
+            for (int round = 0; round < 50; round++) {
+                assertStreamedParseMatches(sample, random);
+            }
+        }
+    }
+
+    @Test
+    void streamedParseMatchesOneShotParseForRandomInput() {
+        Random random = new Random(7);
+        for (int round = 0; round < 2000; round++) {
+            StringBuilder text = new StringBuilder();
+            int pieces = random.nextInt(30);
+            for (int i = 0; i < pieces; i++) {
+                text.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            assertStreamedParseMatches(text.toString(), random);
+        }
+    }
+
+    @Test
+    void listenerSeesTheSameBlocks() {
+        String text = SAMPLES[SAMPLES.length - 1];
+        List<StringBuilder> contents = new ArrayList<>();
+        StreamMarkdownParser parser = new StreamMarkdownParser(new StreamMarkdownParser.Listener() {
+            @Override
+            public void blockOpened(int blockId, MarkdownBlock.Type type, String language, String toolName) {
+                contents.add(new StringBuilder());
+            }
+
+            @Override
+            public void blockAppended(int blockId, CharSequence appended) {
+                contents.get(blockId).append(appended);
+            }
+
+            @Override
+            public void blockClosed(int blockId, boolean completed) {
+            }
+        });
+        for (int i = 0; i < text.length(); i++) {
+            parser.feed(text.substring(i, i + 1));
+        }
+        parser.finish();
+        List<MarkdownBlock> blocks = parser.getBlocks();
+        assertEquals(blocks.size(), contents.size());
+        for (int i = 0; i < blocks.size(); i++) {
+            assertEquals(blocks.get(i).getContent(), contents.get(i).toString());
+        }
+    }
+
+    private static void assertStreamedParseMatches(String text, Random random) {
+        StreamMarkdownParser parser = new StreamMarkdownParser();
+        List<String> chunks = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = Math.min(text.length(), start + 1 + random.nextInt(8));
+            chunks.add(text.substring(start, end));
+            parser.feed(text.substring(start, end));
+            start = end;
+        }
+        parser.finish();
+        assertEquals(StreamMarkdownParser.parse(text), parser.getBlocks(), () -> "chunks " + chunks);
+    }
+}
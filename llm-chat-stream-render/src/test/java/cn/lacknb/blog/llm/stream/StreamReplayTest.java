@@ -0,0 +1,333 @@
+package cn.lacknb.blog.llm.stream;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.testFramework.ServiceContainerUtil;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+
+import javax.swing.JComponent;
+import javax.swing.Timer;
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Replays token streams into a real {@link LLMChatToolWindow}, so that Swing layout, painting and
+ * code editors are measured along with parsing and rendering. Answers come from an
+ * {@link SseTestServer} through the project's chat service, the same path a model's answers take.
+ * <p>
+ * {@code -Dllm.replay.rates=20,100,0} sets the tokens per second, one run per rate, where 0 replays
+ * as fast as possible; the default is a single unthrottled run. {@code -Dllm.replay.transcript}
+ * names a file to replay instead of the synthetic conversation: a transcript written by Export
+ * Chat as Markdown is replayed message by message, any other file as a single answer.
+ * <p>
+ * A paint pass lays out and paints the window into an image every {@link #PAINT_INTERVAL_MS} ms,
+ * standing in for the repaint the IDE would do. Every run prints the EDT CPU time, the latency
+ * percentiles of the paint passes, the component count and the heap growth while the window is
+ * open and after it is disposed. It is left out of {@code test} and run with {@code replayBenchmark}.
+ */
+public class StreamReplayTest extends BasePlatformTestCase {
+    private static final int PAINT_INTERVAL_MS = 16;
+    private static final long SETTLE_MILLIS = 300;
+    private static final int TOKEN_CHARS = 4;
+    private static final int ANSWERS = 3;
+    private static final int SECTIONS = 24;
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 900;
+    private static final String TRANSCRIPT_HEADER = "# Chat transcript";
+
+    public void testReplay() throws Exception {
+        List<Exchange> conversation = new ArrayList<>();
+        String transcript = System.getProperty("llm.replay.transcript");
+        if (transcript != null && !transcript.isEmpty()) {
+            readTranscript(transcript, conversation);
+        } else {
+            for (int i = 0; i < ANSWERS; i++) {
+                conversation.add(new Exchange("Question " + (i + 1), syntheticAnswer(SECTIONS, i)));
+            }
+        }
+        long chars = 0;
+        for (Exchange exchange : conversation) {
+            chars += exchange.answer.length();
+        }
+        System.out.println("Replaying " + conversation.size() + " answers, " + chars + " chars, "
+                + TOKEN_CHARS + " chars per token, window " + WIDTH + "x" + HEIGHT);
+        int[] rates = Arrays.stream(System.getProperty("llm.replay.rates", "0").split(","))
+                .mapToInt(rate -> Integer.parseInt(rate.trim()))
+                .toArray();
+        for (int rate : rates) {
+            Result result = replay(conversation, rate);
+            System.out.println((rate == 0 ? "unthrottled" : rate + " tokens/s") + ": " + result);
+        }
+    }
+
+    private Result replay(List<Exchange> conversation, int rate) throws IOException {
+        Result result = new Result();
+        Disposable serviceParent = Disposer.newDisposable("replay chat service");
+        try (SseTestServer server = new SseTestServer(rate, TOKEN_CHARS)) {
+            ProjectChatService service = new ProjectChatService(server.createChatService());
+            ServiceContainerUtil.replaceService(getProject(), ProjectChatService.class, service, serviceParent);
+            OpenAIChatService chatService = ProjectChatService.getInstance(getProject());
+            long heapBefore = usedHeap();
+            LLMChatToolWindow window = new LLMChatToolWindow(getProject());
+            Disposer.register(getTestRootDisposable(), window);
+            JComponent content = window.getContent();
+            content.setSize(WIDTH, HEIGHT);
+            PaintLoop paintLoop = new PaintLoop(content, result.paintPasses);
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long edtCpuBefore = threads.getCurrentThreadCpuTime();
+            long start = System.nanoTime();
+            paintLoop.start();
+            try {
+                for (int i = 0; i < conversation.size(); i++) {
+                    Exchange exchange = conversation.get(i);
+                    int answered = i + 1;
+                    server.setAnswer(exchange.answer);
+                    window.submitPrompt(exchange.prompt, false);
+                    PlatformTestUtil.waitWithEventsDispatching("Replay of \"" + exchange.prompt + "\" did not finish",
+                            () -> server.getCompleted() == answered && chatService.getActiveStreamCount() == 0, 600);
+                    // Let the frames scheduled for the end of the answer run.
+                    long settled = System.nanoTime() + SETTLE_MILLIS * 1_000_000L;
+                    PlatformTestUtil.waitWithEventsDispatching("", () -> System.nanoTime() >= settled, 10);
+                }
+            } finally {
+                paintLoop.stop();
+            }
+            result.wallNanos = System.nanoTime() - start;
+            result.edtCpuNanos = threads.getCurrentThreadCpuTime() - edtCpuBefore;
+            result.maxComponents = paintLoop.maxComponents;
+            result.components = countComponents(content);
+            result.heapOpen = usedHeap() - heapBefore;
+            Disposer.dispose(window);
+            result.heapDisposed = usedHeap() - heapBefore;
+            assertEquals(conversation.size(), server.getCompleted());
+            assertTrue("The window was never painted", result.paintPasses.size() > 0);
+            Disposer.dispose(service);
+        } finally {
+            Disposer.dispose(serviceParent);
+        }
+        return result;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static int countComponents(Component component) {
+        int count = 1;
+        if (component instanceof Container) {
+            for (Component child : ((Container) component).getComponents()) {
+                count += countComponents(child);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads an exported Markdown transcript as its user and assistant messages, or any other file
+     * as a single answer.
+     */
+    private static void readTranscript(String path, List<Exchange> conversation) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(TRANSCRIPT_HEADER)) {
+            conversation.add(new Exchange(Paths.get(path).getFileName().toString(), String.join("\n", lines)));
+            return;
+        }
+        String prompt = null;
+        StringBuilder message = null;
+        boolean assistant = false;
+        for (String line : lines.subList(1, lines.size())) {
+            boolean header = line.equals("## User") || line.equals("## Assistant") || line.equals("## Message");
+            if (!header) {
+                if (message != null) {
+                    message.append(line).append('\n');
+                }
+                continue;
+            }
+            if (message != null) {
+                if (assistant) {
+                    conversation.add(new Exchange(prompt == null ? path : prompt, message.toString().trim()));
+                } else {
+                    prompt = message.toString().trim();
+                }
+            }
+            message = new StringBuilder();
+            assistant = line.equals("## Assistant");
+        }
+        if (message != null && assistant) {
+            conversation.add(new Exchange(prompt == null ? path : prompt, message.toString().trim()));
+        }
+    }
+
+    private static String syntheticAnswer(int sections, int seed) {
+        StringBuilder markdown = new StringBuilder("<think>\n");
+        for (int i = 0; i < 6; i++) {
+            markdown.append("Check how the ").append(i % 2 == 0 ? "loop" : "buffer")
+                    .append(" behaves when the input is empty, then look at the edge cases.\n");
+        }
+        markdown.append("</think>\n");
+        for (int i = 0; i < sections; i++) {
+            markdown.append("## Step ").append(i + 1).append("\n\n")
+                    .append("The **parser** reads each chunk and keeps `state` between calls, so a ")
+                    .append("response streamed in small pieces is parsed *once*. See [the docs](https://example.com).\n\n")
+                    .append("- first item with `code`\n")
+                    .append("- second item\n")
+                    .append("  - nested item\n\n");
+            if ((i + seed) % 3 == 2) {
+                markdown.append("> A quoted note that spans\n> two lines.\n\n");
+                continue;
+            }
+            boolean java = (i + seed) % 3 == 0;
+            markdown.append(java ? "```java\n" : "```python\n");
+            for (int line = 0; line < 12; line++) {
+                markdown.append(java
+                        ? "    total += values[" + line + "] * weights[" + line + "]; // step " + (i + 1) + "\n"
+                        : "    total += values[" + line + "] * weights[" + line + "]  # step " + (i + 1) + "\n");
+            }
+            markdown.append("```\n\n");
+        }
+        return markdown.toString();
+    }
+
+    private static final class Exchange {
+        private final String prompt;
+        private final String answer;
+
+        Exchange(String prompt, String answer) {
+            this.prompt = prompt;
+            this.answer = answer;
+        }
+    }
+
+    /**
+     * Lays out and paints the window on the EDT at a fixed interval, recording how late each pass
+     * started plus how long it took.
+     */
+    private static final class PaintLoop {
+        private final JComponent content;
+        private final LongSamples samples;
+        private final Timer timer;
+        private final BufferedImage image;
+        private long dueNanos;
+        private int maxComponents;
+
+        PaintLoop(JComponent content, LongSamples samples) {
+            this.content = content;
+            this.samples = samples;
+            this.image = new BufferedImage(content.getWidth(), content.getHeight(), BufferedImage.TYPE_INT_ARGB);
+            this.timer = new Timer(PAINT_INTERVAL_MS, e -> paint());
+        }
+
+        void start() {
+            dueNanos = System.nanoTime() + PAINT_INTERVAL_MS * 1_000_000L;
+            timer.start();
+        }
+
+        void stop() {
+            timer.stop();
+        }
+
+        private void paint() {
+            long start = System.nanoTime();
+            layout(content);
+            Graphics2D graphics = image.createGraphics();
+            try {
+                content.paint(graphics);
+            } finally {
+                graphics.dispose();
+            }
+            long end = System.nanoTime();
+            samples.add(Math.max(0, start - dueNanos) + end - start);
+            dueNanos = end + PAINT_INTERVAL_MS * 1_000_000L;
+            if (samples.size() % 32 == 0) {
+                maxComponents = Math.max(maxComponents, countComponents(content));
+            }
+        }
+
+        /**
+         * The window has no peer, so {@code validate()} does nothing; lay out the tree directly.
+         */
+        private static void layout(Component component) {
+            if (!(component instanceof Container)) {
+                return;
+            }
+            Container container = (Container) component;
+            container.doLayout();
+            for (Component child : container.getComponents()) {
+                layout(child);
+            }
+        }
+    }
+
+    private static final class LongSamples {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        String describe() {
+            if (size == 0) {
+                return "none";
+            }
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return size + " passes, p50 " + formatMillis(percentile(sorted, 50))
+                    + ", p90 " + formatMillis(percentile(sorted, 90))
+                    + ", p99 " + formatMillis(percentile(sorted, 99))
+                    + ", max " + formatMillis(sorted[size - 1]);
+        }
+
+        private static long percentile(long[] sorted, int percent) {
+            return sorted[Math.min(sorted.length - 1, (int) ((long) sorted.length * percent / 100))];
+        }
+    }
+
+    private static final class Result {
+        private final LongSamples paintPasses = new LongSamples();
+        private long wallNanos;
+        private long edtCpuNanos;
+        private int components;
+        private int maxComponents;
+        private long heapOpen;
+        private long heapDisposed;
+
+        @Override
+        public String toString() {
+            return String.format("%.1f s, EDT busy %.1f s (%.0f%%)", wallNanos / 1e9, edtCpuNanos / 1e9, 100.0 * edtCpuNanos / wallNanos)
+                    + "\n  paint passes (late + layout + paint): " + paintPasses.describe()
+                    + "\n  components: " + components + " at the end, max " + Math.max(components, maxComponents)
+                    + "\n  heap growth: " + formatKilobytes(heapOpen) + " with the window open, "
+                    + formatKilobytes(heapDisposed) + " after disposing it";
+        }
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format("%.1f ms", nanos / 1_000_000.0);
+    }
+
+    private static String formatKilobytes(long bytes) {
+        return String.format("%,d KB", bytes / 1024);
+    }
+}
@@ -55,6 +55,28 @@ public class AppSettingsState implements PersistentStateComponent<AppSettingsSta
         public List<PropertyItem> bottomItems = new ArrayList<>();
         public int bottomSelectedIndex = -1;
 
+        /**
+         * 深拷贝: 复制三个列表中的每一行, 使 UI 编辑不会影响已保存的状态。
+         */
+        public TableData copy() {
+            TableData copy = new TableData();
+            copy.selectedCustomRuleIndex = selectedCustomRuleIndex;
+            copy.bottomSelectedIndex = bottomSelectedIndex;
+            copy.customRules = new ArrayList<>(customRules.size());
+            for (CustomRule rule : customRules) {
+                copy.customRules.add(new CustomRule(rule.name, rule.value));
+            }
+            copy.bottomItems = new ArrayList<>(bottomItems.size());
+            for (PropertyItem item : bottomItems) {
+                copy.bottomItems.add(new PropertyItem(item.name, item.value));
+            }
+            copy.ruleItems = new ArrayList<>(ruleItems.size());
+            for (RuleItem item : ruleItems) {
+                copy.ruleItems.add(new RuleItem(item.name, item.value));
+            }
+            return copy;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
@@ -15,7 +15,6 @@ import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableCellEditor;
 import javax.swing.table.TableCellRenderer;
 import java.awt.*;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -479,22 +478,7 @@ public class ThreeTableSettingsConfigurable implements SearchableConfigurable {
     }
 
     private AppSettingsState.TableData deepCopyTableData(AppSettingsState.TableData original) {
-        AppSettingsState.TableData copy = new AppSettingsState.TableData();
-        copy.selectedCustomRuleIndex = original.selectedCustomRuleIndex;
-        copy.bottomSelectedIndex = original.bottomSelectedIndex;
-        copy.customRules = new ArrayList<>();
-        for (AppSettingsState.CustomRule rule : original.customRules) {
-            copy.customRules.add(new AppSettingsState.CustomRule(rule.name, rule.value));
-        }
-        copy.bottomItems = new ArrayList<>();
-        for (AppSettingsState.PropertyItem item : original.bottomItems) {
-            copy.bottomItems.add(new AppSettingsState.PropertyItem(item.name, item.value));
-        }
-        copy.ruleItems = new ArrayList<>();
-        for (AppSettingsState.RuleItem item : original.ruleItems) {
-            copy.ruleItems.add(new AppSettingsState.RuleItem(item.name, item.value));
-        }
-        return copy;
+        return original.copy();
     }
     //</editor-fold>
 }